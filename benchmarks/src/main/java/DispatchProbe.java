@@ -0,0 +1,42 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/** Runs command lines through {@link Server#dispatch} against a session that discards its replies. */
+public class DispatchProbe implements Consumer<String> {
+    private final Session session = new Session() {
+        @Override
+        public InputStream input() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public OutputStream output() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public String remoteAddress() {
+            return "benchmark";
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    public DispatchProbe() {
+        // Measure dispatch, not the console
+        Log.configure("off");
+    }
+
+    @Override
+    public void accept(String line) {
+        Server.dispatch(line, session);
+    }
+}
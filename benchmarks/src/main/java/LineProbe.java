@@ -0,0 +1,37 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Calls {@link Server#readLine} for the benchmarks. JMH benchmarks must be in a named
+ * package, which cannot see the application's default package, so they reach it through
+ * this class and a {@code java.util.function} interface.
+ */
+public class LineProbe implements ToIntFunction<byte[]> {
+    private final boolean buffered;
+
+    /** With {@code buffered} the lines come through a {@link SocketInput}, as on a real connection. */
+    public LineProbe(boolean buffered) {
+        this.buffered = buffered;
+    }
+
+    /** Reads every line of {@code data} and returns how many there were. */
+    @Override
+    public int applyAsInt(byte[] data) {
+        InputStream in = new ByteArrayInputStream(data);
+        if (buffered) {
+            in = new SocketInput(in);
+        }
+        int lines = 0;
+        try {
+            while (Server.readLine(in) != null) {
+                lines++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+}
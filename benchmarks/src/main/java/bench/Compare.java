@@ -0,0 +1,97 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with {@code -rf csv}, row by row:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar bench.Compare before.csv after.csv
+ * </pre>
+ * A change counts as faster or slower only when the scores differ by more than their
+ * error margins combined; anything closer is reported as within noise.
+ */
+public class Compare {
+    private record Result(double score, double error, String unit) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: Compare <before.csv> <after.csv>");
+            System.exit(2);
+        }
+        Map<String, Result> before = read(Path.of(args[0]));
+        Map<String, Result> after = read(Path.of(args[1]));
+        int slower = 0;
+        for (Map.Entry<String, Result> entry : after.entrySet()) {
+            Result old = before.get(entry.getKey());
+            Result now = entry.getValue();
+            if (old == null) {
+                System.out.printf("%-70s %14s %14.3f %-8s new%n", entry.getKey(), "-", now.score, now.unit);
+                continue;
+            }
+            // Throughput is better when higher; time per operation when lower
+            boolean higherIsBetter = now.unit.endsWith("/s") || now.unit.endsWith("/ms") || now.unit.endsWith("/us")
+                    || now.unit.endsWith("/ns") || now.unit.endsWith("/min");
+            double change = (now.score - old.score) / old.score * 100;
+            String verdict;
+            if (Math.abs(now.score - old.score) <= old.error + now.error) {
+                verdict = "within noise";
+            } else if ((now.score > old.score) == higherIsBetter) {
+                verdict = "faster";
+            } else {
+                verdict = "SLOWER";
+                slower++;
+            }
+            System.out.printf("%-70s %14.3f %14.3f %-8s %+7.1f%%  %s%n", entry.getKey(), old.score, now.score, now.unit, change, verdict);
+        }
+        System.out.println(slower == 0 ? "No regressions." : slower + " benchmark(s) got slower.");
+        System.exit(slower == 0 ? 0 : 1);
+    }
+
+    // Keyed by benchmark, mode and parameter values, e.g. "bench.ListBenchmark.page thrpt entries=1000"
+    private static Map<String, Result> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<String> header = split(lines.get(0));
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> cells = split(line);
+            StringBuilder key = new StringBuilder(cells.get(0)).append(' ').append(cells.get(1));
+            for (int i = 7; i < cells.size() && i < header.size(); i++) {
+                if (!cells.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(cells.get(i));
+                }
+            }
+            double error = cells.get(5).isEmpty() || cells.get(5).equals("NaN") ? 0 : Double.parseDouble(cells.get(5));
+            results.put(key.toString(), new Result(Double.parseDouble(cells.get(4)), error, cells.get(6)));
+        }
+        return results;
+    }
+
+    private static List<String> split(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
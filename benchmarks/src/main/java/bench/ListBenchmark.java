@@ -0,0 +1,72 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@code list} on a server directory of {@code entries} files: the full name list, and one sorted metadata page. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListBenchmark {
+    @Param({"10", "1000", "10000", "100000"})
+    public int entries;
+
+    private ServerProcess server;
+    private Wire wire;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        Path directory = ServerProcess.scratchDirectory();
+        Path files = directory.resolve("ServerFiles");
+        for (int i = 0; i < entries; i++) {
+            Files.createFile(files.resolve(String.format("file-%06d.txt", i)));
+        }
+        server = ServerProcess.start(directory);
+        wire = new Wire(server.connect());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        wire.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int names() throws IOException {
+        wire.send("list");
+        int count = Integer.parseInt(wire.readLine());
+        for (int i = 0; i < count; i++) {
+            wire.readLine();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int page() throws IOException {
+        wire.send("list?sort=mtime?order=desc?limit=100");
+        String[] header = wire.readLine().split("\\?");
+        int returned = Integer.parseInt(header[1]);
+        for (int i = 0; i < returned; i++) {
+            wire.readLine();
+        }
+        return returned;
+    }
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@code Server.readLine} over a block of command lines, byte by byte or through a buffered socket input. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private static final int LINES = 100;
+
+    @Param({"plain", "buffered"})
+    public String input;
+
+    @Param({"16", "256"})
+    public int lineLength;
+
+    private byte[] data;
+    private ToIntFunction<byte[]> probe;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            StringBuilder line = new StringBuilder("download?file-" + i + ".bin?0?");
+            while (line.length() < lineLength) {
+                line.append('9');
+            }
+            text.append(line, 0, lineLength).append('\n');
+        }
+        data = text.toString().getBytes(StandardCharsets.UTF_8);
+        probe = Probes.create(ToIntFunction.class, "LineProbe", input.equals("buffered"));
+    }
+
+    /** Time for all {@value #LINES} lines. */
+    @Benchmark
+    public int readLines() {
+        return probe.applyAsInt(data);
+    }
+}
@@ -0,0 +1,24 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+
+/** Creates the default-package probes that give benchmarks access to the application's classes. */
+final class Probes {
+    private Probes() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T create(Class<T> type, String className, Object... args) {
+        try {
+            Class<?>[] parameterTypes = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                parameterTypes[i] = args[i] instanceof Boolean ? boolean.class : args[i].getClass();
+            }
+            return type.cast(Class.forName(className).getConstructor(parameterTypes).newInstance(args));
+        } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot create " + className, e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create " + className, e.getCause());
+        }
+    }
+}
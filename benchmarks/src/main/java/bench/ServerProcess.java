@@ -0,0 +1,98 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A server started as its own process in a scratch directory, so transfer benchmarks go
+ * through a real socket and the benchmark's JIT and GC stay out of the server's way.
+ */
+final class ServerProcess implements AutoCloseable {
+    final Path directory;
+    final int port;
+    private final Process process;
+
+    private ServerProcess(Path directory, int port, Process process) {
+        this.directory = directory;
+        this.port = port;
+        this.process = process;
+    }
+
+    /** A fresh scratch directory whose {@code ServerFiles} the caller can fill before {@link #start}. */
+    static Path scratchDirectory() {
+        try {
+            Path directory = Files.createTempDirectory("project3-bench");
+            Files.createDirectories(directory.resolve("ServerFiles"));
+            return directory;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Starts {@code Server} in {@code directory} with extra {@code --key=value} options and waits until it accepts. */
+    static ServerProcess start(Path directory, String... options) throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        String classPath;
+        try {
+            classPath = Path.of(Class.forName("Server").getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (ReflectiveOperationException | java.net.URISyntaxException e) {
+            throw new IllegalStateException("Cannot locate the Server class", e);
+        }
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", classPath, "Server", "--port=" + port, "--log=off"));
+        command.addAll(List.of(options));
+        Process process = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        ServerProcess server = new ServerProcess(directory, port, process);
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+                return server;
+            } catch (IOException e) {
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    server.close();
+                    throw new IOException("Server did not start on port " + port, e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            // Leave the scratch directory behind rather than fail the run
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-file {@code download} and {@code upload} over loopback against a server process.
+ * Scores are files per second; multiply by {@code fileSize} for bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+    @Param({"4096", "1048576", "67108864"})
+    public int fileSize;
+
+    /** The server's copy buffer, used wherever a transfer cannot be zero-copy. */
+    @Param({"8192", "65536", "1048576"})
+    public int bufferSize;
+
+    @Param({"true", "false"})
+    public boolean zeroCopy;
+
+    private ServerProcess server;
+    private Wire wire;
+    private byte[] data;
+    private byte[] buffer;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        buffer = new byte[256 * 1024];
+        var directory = ServerProcess.scratchDirectory();
+        Files.write(directory.resolve("ServerFiles").resolve("download.bin"), data);
+        server = ServerProcess.start(directory, "--buffer-size=" + bufferSize, "--zero-copy=" + zeroCopy);
+        wire = new Wire(server.connect());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        wire.close();
+        server.close();
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        wire.send("download?download.bin");
+        String reply = wire.readLine();
+        long size = Long.parseLong(reply.substring(3));
+        wire.skip(size, buffer);
+        return size;
+    }
+
+    @Benchmark
+    public String upload() throws IOException {
+        wire.send("upload?upload.bin?" + fileSize);
+        wire.write(data, fileSize);
+        return wire.readLine();
+    }
+}
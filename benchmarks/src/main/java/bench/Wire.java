@@ -0,0 +1,60 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/** A bare text-protocol client, so transfer benchmarks measure the server rather than {@code Client}. */
+final class Wire implements AutoCloseable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final StringBuilder line = new StringBuilder();
+
+    Wire(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        this.out = socket.getOutputStream();
+    }
+
+    void send(String command) throws IOException {
+        out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    void write(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+    }
+
+    String readLine() throws IOException {
+        line.setLength(0);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Server closed the connection");
+            }
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    /** Reads and drops {@code count} bytes through {@code buffer}. */
+    void skip(long count, byte[] buffer) throws IOException {
+        while (count > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n == -1) {
+                throw new EOFException("Server closed the connection with " + count + " bytes to go");
+            }
+            count -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client side of the batch commands. {@code mget} and {@code mput} move any number of files
+ * as one bundle in a single request, so many small files cost about one round trip in
+ * total instead of one (plus a listing) each. Each file in a bundle is a
+ * {@code FILE?name?size?codec} header, its bytes and a {@code DONE?name} trailer.
+ */
+public class BatchTransfer {
+    /**
+     * Downloads every file matching {@code patterns} (names or globs) into {@code folder},
+     * unpacking each one as its bytes arrive. Returns the files written.
+     */
+    public static List<File> download(ServerConnection connection, List<String> patterns, File folder) throws IOException {
+        folder.mkdirs();
+        sendPatterns(connection, "mget", patterns, Client.codecOffer(connection));
+        String reply = connection.readLine();
+        if (reply == null || !reply.startsWith("OK?")) {
+            throw new IOException(reply == null ? "Connection closed by server" : reply);
+        }
+        int entries = Integer.parseInt(reply.substring(3));
+        List<File> received = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            String header = connection.readLine();
+            if (header == null) {
+                throw new IOException("Connection closed inside the bundle");
+            }
+            String[] parts = header.split("\\?");
+            if (parts[0].equals("SKIP")) {
+                System.out.println("Skipped " + parts[1] + ": " + (parts.length > 2 ? parts[2] : "not sent"));
+                continue;
+            }
+            if (!parts[0].equals("FILE")) {
+                throw new IOException("Unexpected bundle entry: " + header);
+            }
+            String fileName = parts[1];
+            long size = Long.parseLong(parts[2]);
+            // The server chose the name, so never let it point outside the download folder
+            File outputFile = new File(folder, new File(fileName).getName());
+            File partFile = new File(folder, outputFile.getName() + Client.PART_SUFFIX);
+            try (FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Codec codec = Codecs.get(parts[3].split(":", 2)[0]);
+                if (codec != null) {
+                    Transfers.receiveEncoded(connection.input(), fileChannel, 0, size, codec);
+                } else {
+                    Transfers.receive(connection.input(), connection.channel(), fileChannel, 0, size);
+                }
+            }
+            String trailer = connection.readLine();
+            if (!("DONE?" + fileName).equals(trailer)) {
+                throw new IOException("Bundle out of step after " + fileName + ": " + trailer);
+            }
+            Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            received.add(outputFile);
+        }
+        String end = connection.readLine();
+        if (!"END".equals(end)) {
+            throw new IOException("Bundle did not end cleanly: " + end);
+        }
+        return received;
+    }
+
+    /** Uploads {@code files} as one bundle and returns the server's line for each file. */
+    public static List<String> upload(ServerConnection connection, List<File> files) throws IOException {
+        // Pick codecs first: asking the server which it supports is a request of its own
+        List<String> codecs = new ArrayList<>(files.size());
+        for (File file : files) {
+            codecs.add(Client.uploadCodec(connection, file));
+        }
+        Client.sendRequest(connection, "mput", String.valueOf(files.size()));
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            String codecSpec = codecs.get(i);
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = fileChannel.size();
+                connection.output().write(("FILE?" + file.getName() + "?" + size + "?"
+                        + (codecSpec == null ? Codecs.IDENTITY : codecSpec) + "\n").getBytes(StandardCharsets.UTF_8));
+                Client.sendBody(connection, codecSpec, fileChannel, 0, size, null);
+            }
+            connection.output().write(("DONE?" + file.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        connection.output().flush();
+        return readResults(connection);
+    }
+
+    /** Deletes every file matching {@code patterns} and returns one result line per file. */
+    public static List<String> delete(ServerConnection connection, List<String> patterns) throws IOException {
+        sendPatterns(connection, "mdelete", patterns, "");
+        return readResults(connection);
+    }
+
+    // Patterns go one per line in the body, since '?' is both a glob character and our separator
+    private static void sendPatterns(ServerConnection connection, String command, List<String> patterns, String options) throws IOException {
+        Client.sendRequest(connection, command, patterns.size() + options);
+        StringBuilder body = new StringBuilder();
+        for (String pattern : patterns) {
+            body.append(pattern).append('\n');
+        }
+        connection.output().write(body.toString().getBytes(StandardCharsets.UTF_8));
+        connection.output().flush();
+    }
+
+    /** Renames each {@code {old, new}} pair and returns one result line per pair. */
+    public static List<String> rename(ServerConnection connection, List<String[]> pairs) throws IOException {
+        Client.sendRequest(connection, "mrename", String.valueOf(pairs.size()));
+        StringBuilder body = new StringBuilder();
+        for (String[] pair : pairs) {
+            body.append(pair[0]).append('?').append(pair[1]).append('\n');
+        }
+        connection.output().write(body.toString().getBytes(StandardCharsets.UTF_8));
+        connection.output().flush();
+        return readResults(connection);
+    }
+
+    private static List<String> readResults(ServerConnection connection) throws IOException {
+        String reply = connection.readLine();
+        if (reply == null || !reply.startsWith("OK?")) {
+            return List.of(reply == null ? "ERROR: Connection closed by server" : reply);
+        }
+        int count = Integer.parseInt(reply.substring(3));
+        List<String> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(connection.readLine());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A growable ring of bytes with one producer and one blocking reader. The NIO engine
+ * pushes socket bytes in from an event loop thread and a handler reads them back
+ * through {@link #inputStream()}, so handlers written against blocking streams still
+ * work on top of a non-blocking channel.
+ * <p>
+ * Waiting uses a {@link ReentrantLock} rather than a monitor so a reader parked here
+ * does not pin a virtual thread's carrier.
+ */
+public class BytePipe {
+    private byte[] ring;
+    private int head;
+    private int size;
+    private boolean eof;
+    private boolean discarding;
+    private final int highWaterMark;
+    private Runnable onDrained;
+    private final InputStream stream = new PipeInputStream();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+
+    public BytePipe(int initialCapacity, int highWaterMark) {
+        this.ring = new byte[initialCapacity];
+        this.highWaterMark = highWaterMark;
+    }
+
+    /** Called once, on the reading thread, when a full pipe drains back below its mark. */
+    public void onDrained(Runnable callback) {
+        lock.lock();
+        try {
+            this.onDrained = callback;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void write(ByteBuffer src) {
+        lock.lock();
+        try {
+            if (discarding) {
+                src.position(src.limit());
+                return;
+            }
+            int n = src.remaining();
+            ensureCapacity(size + n);
+            int tail = (head + size) % ring.length;
+            int first = Math.min(n, ring.length - tail);
+            src.get(ring, tail, first);
+            src.get(ring, 0, n - first);
+            size += n;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void write(byte[] b, int off, int len) {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /** Blocks a producer that has no other way to push back until the reader catches up. */
+    public void awaitSpace() throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (size >= highWaterMark && !discarding) {
+                try {
+                    drained.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the reader");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The reader is gone: drop what is buffered and everything written from now on. */
+    public void discard() {
+        lock.lock();
+        try {
+            discarding = true;
+            eof = true;
+            head = 0;
+            size = 0;
+            readable.signalAll();
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void closeWrite() {
+        lock.lock();
+        try {
+            eof = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int available() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isFull() {
+        lock.lock();
+        try {
+            return size >= highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isFinished() {
+        lock.lock();
+        try {
+            return eof && size == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** True when a whole {@code \n}-terminated line, or a trailing partial one at EOF, is buffered. */
+    public boolean hasLine() {
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (ring[(head + i) % ring.length] == '\n') {
+                    return true;
+                }
+            }
+            return eof && size > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Reads one line straight out of the ring; see {@link LineInput#readLine()}. */
+    public String readLine() throws IOException {
+        return takeLine();
+    }
+
+    public InputStream inputStream() {
+        return stream;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= ring.length) {
+            return;
+        }
+        byte[] bigger = new byte[Math.max(needed, ring.length * 2)];
+        int first = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, bigger, 0, first);
+        System.arraycopy(ring, 0, bigger, first, size - first);
+        ring = bigger;
+        head = 0;
+    }
+
+    private int take(byte[] b, int off, int len) throws IOException {
+        Runnable callback;
+        int n;
+        lock.lock();
+        try {
+            while (size == 0 && !eof) {
+                try {
+                    readable.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for client data");
+                }
+            }
+            if (size == 0) {
+                return -1;
+            }
+            boolean wasFull = size >= highWaterMark;
+            n = Math.min(len, size);
+            int first = Math.min(n, ring.length - head);
+            System.arraycopy(ring, head, b, off, first);
+            System.arraycopy(ring, 0, b, off + first, n - first);
+            head = (head + n) % ring.length;
+            size -= n;
+            callback = afterTake(wasFull);
+        } finally {
+            lock.unlock();
+        }
+        if (callback != null) {
+            callback.run();
+        }
+        return n;
+    }
+
+    // Called with the lock held once bytes were taken; returns the drain callback to run, if due.
+    private Runnable afterTake(boolean wasFull) {
+        if (wasFull && size < highWaterMark) {
+            drained.signalAll();
+            return onDrained;
+        }
+        return null;
+    }
+
+    private String takeLine() throws IOException {
+        Runnable callback;
+        String line;
+        lock.lock();
+        try {
+            int scanned = 0;
+            while (true) {
+                int end = -1;
+                for (int i = scanned; i < size; i++) {
+                    if (ring[(head + i) % ring.length] == '\n') {
+                        end = i;
+                        break;
+                    }
+                }
+                if (end >= 0 || (eof && size > 0)) {
+                    int length = end >= 0 ? end : size;
+                    byte[] bytes = new byte[length];
+                    int first = Math.min(length, ring.length - head);
+                    System.arraycopy(ring, head, bytes, 0, first);
+                    System.arraycopy(ring, 0, bytes, first, length - first);
+                    boolean wasFull = size >= highWaterMark;
+                    int consumed = end >= 0 ? length + 1 : length;
+                    head = (head + consumed) % ring.length;
+                    size -= consumed;
+                    callback = afterTake(wasFull);
+                    line = SocketInput.stripCr(new String(bytes, StandardCharsets.UTF_8));
+                    break;
+                }
+                if (eof) {
+                    return null;
+                }
+                scanned = size;
+                try {
+                    readable.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for client data");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (callback != null) {
+            callback.run();
+        }
+        return line;
+    }
+
+    private class PipeInputStream extends InputStream implements LineInput {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int n = take(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return take(b, off, len);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            return takeLine();
+        }
+
+        @Override
+        public int available() {
+            return BytePipe.this.available();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Checksums of the server's files, kept in a sidecar journal so they survive restarts.
+ * Each journal line is {@code name<TAB>size<TAB>mtime<TAB>algorithm<TAB>hex}; a later line
+ * for the same name replaces an earlier one, and a checksum whose size or mtime no longer
+ * matches the file is never returned. Uploads and downloads record what they computed
+ * while the bytes streamed past, so most files are never read just to be checksummed.
+ * Once superseded lines outnumber the live ones several times over, the journal is
+ * rewritten with only the live ones.
+ */
+public class ChecksumIndex {
+    private record Known(long size, long modified, Map<String, String> values) {
+    }
+
+    // Rewrite the journal when it holds this many lines per known name (and at least the minimum)
+    private static final int COMPACT_RATIO = 4;
+    private static final int MIN_COMPACT_LINES = 1024;
+
+    private final Path journal;
+    private final Map<String, Known> known = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Writer writer;
+    // Lines in the journal file, live or superseded; guarded by writeLock
+    private int lines;
+
+    public ChecksumIndex(Path journal) throws IOException {
+        this.journal = journal;
+        Files.createDirectories(journal.getParent());
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] fields = line.split("\t");
+                if (fields.length == 5) {
+                    apply(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4]);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // First start: nothing recorded yet
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring the rest of a damaged checksum index: " + e.getMessage());
+        }
+    }
+
+    /** The recorded checksum of {@code name} at this size and mtime, or {@code null} if there is none. */
+    public String get(String name, long size, long modified, String algorithm) {
+        Known entry = known.get(name);
+        return entry != null && entry.size() == size && entry.modified() == modified ? entry.values().get(algorithm) : null;
+    }
+
+    /** Records a checksum and appends it to the journal. */
+    public void put(String name, long size, long modified, String algorithm, String value) throws IOException {
+        apply(name, size, modified, algorithm, value);
+        writeLock.lock();
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(name + "\t" + size + "\t" + modified + "\t" + algorithm + "\t" + value + "\n");
+            writer.flush();
+            if (++lines > Math.max(MIN_COMPACT_LINES, COMPACT_RATIO * known.size())) {
+                rewrite();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Carries the checksums recorded for {@code name} at one mtime over to another, after
+     * only its mtime was changed. Nothing is carried if the record is for other content.
+     */
+    public void retime(String name, long size, long from, long to) throws IOException {
+        Known entry = known.get(name);
+        if (entry == null || entry.size() != size || entry.modified() != from) {
+            return;
+        }
+        for (Map.Entry<String, String> value : Map.copyOf(entry.values()).entrySet()) {
+            put(name, size, to, value.getKey(), value.getValue());
+        }
+    }
+
+    public void forget(String name) {
+        known.remove(name);
+    }
+
+    /**
+     * Drops every checksum that no longer matches its file, as {@code current} reports it
+     * ({@code null} for a file that is gone), and rewrites the journal with what is left.
+     */
+    public void compact(Function<String, DirectoryIndex.Entry> current) throws IOException {
+        known.entrySet().removeIf(e -> {
+            DirectoryIndex.Entry entry = current.apply(e.getKey());
+            return entry == null || entry.size() != e.getValue().size() || entry.modified() != e.getValue().modified();
+        });
+        writeLock.lock();
+        try {
+            rewrite();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Replaces the journal with one line per known checksum; the caller holds writeLock
+    private void rewrite() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        Path temp = journal.resolveSibling(journal.getFileName() + ".tmp");
+        int written = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Known> e : known.entrySet()) {
+                for (Map.Entry<String, String> value : e.getValue().values().entrySet()) {
+                    out.write(e.getKey() + "\t" + e.getValue().size() + "\t" + e.getValue().modified()
+                            + "\t" + value.getKey() + "\t" + value.getValue() + "\n");
+                    written++;
+                }
+            }
+        }
+        Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lines = written;
+    }
+
+    private void apply(String name, long size, long modified, String algorithm, String value) {
+        Known entry = known.compute(name, (k, old) -> old != null && old.size() == size && old.modified() == modified
+                ? old : new Known(size, modified, new ConcurrentHashMap<>()));
+        entry.values().put(algorithm, value);
+    }
+}
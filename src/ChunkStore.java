@@ -0,0 +1,377 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional content-addressed storage behind {@code ServerFiles}. Files are cut by
+ * {@link Chunker}, each distinct chunk is kept once under its SHA-256, and a file name
+ * maps to a manifest listing its chunks. Layout inside {@code ServerFiles/.store}:
+ * <pre>
+ *   chunks/ab/abcdef...     one file per unique chunk
+ *   manifests/&lt;name&gt;        first line is the size, then one "hash length" line per chunk
+ * </pre>
+ * Chunks no manifest refers to are swept in the background after deletes and overwrites.
+ */
+public class ChunkStore {
+    // Chunks younger than this survive a sweep: an upload stores them before its commit
+    private static final long SWEEP_GRACE_MILLIS = 10 * 60 * 1000;
+    /** Most chunks one request may name: 64 GiB even if every chunk is {@link Chunker#MIN_CHUNK}. */
+    public static final int MAX_CHUNKS = 4 * 1024 * 1024;
+
+    private final Path chunks;
+    private final Path manifests;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final AtomicInteger sweepRequests = new AtomicInteger();
+
+    public record ChunkRef(String hash, int length) {
+    }
+
+    public ChunkStore(File serverFolder) throws IOException {
+        Path root = serverFolder.toPath().resolve(".store");
+        this.chunks = root.resolve("chunks");
+        this.manifests = root.resolve("manifests");
+        Files.createDirectories(chunks);
+        Files.createDirectories(manifests);
+    }
+
+    public static String hash(byte[] data, int off, int len) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, off, len);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private Path chunkPath(String hash) {
+        if (hash.length() != 64 || !hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+            throw new IllegalArgumentException("Not a SHA-256 hex digest: " + hash);
+        }
+        return chunks.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    public boolean hasChunk(String hash) {
+        return Files.isRegularFile(chunkPath(hash));
+    }
+
+    /**
+     * Returns the hashes not yet stored. Chunks that are present get their timestamp
+     * refreshed, so a sweep cannot remove them before the upload that reuses them commits.
+     */
+    public List<String> missing(List<String> hashes) {
+        List<String> missing = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        long now = System.currentTimeMillis();
+        for (String hash : hashes) {
+            if (!seen.add(hash)) {
+                continue;
+            }
+            Path chunk = chunkPath(hash);
+            if (Files.exists(chunk)) {
+                // A refresh that fails (e.g. on a read-only mount) still leaves the chunk stored
+                chunk.toFile().setLastModified(now);
+            } else {
+                missing.add(hash);
+            }
+        }
+        return missing;
+    }
+
+    /** Stores a chunk after checking that its bytes really hash to {@code hash}. */
+    public void putChunk(String hash, byte[] data, int length) throws IOException {
+        if (!hash(data, 0, length).equals(hash)) {
+            throw new IOException("Chunk content does not match hash " + hash);
+        }
+        Path target = chunkPath(hash);
+        if (Files.exists(target)) {
+            // Refresh the timestamp so a running sweep does not remove a chunk being reused
+            target.toFile().setLastModified(System.currentTimeMillis());
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+        Files.write(temp, Arrays.copyOf(data, length));
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public boolean exists(String name) {
+        return Files.isRegularFile(manifestPath(name));
+    }
+
+    private Path manifestPath(String name) {
+        Path path = manifests.resolve(name).normalize();
+        if (!path.getParent().equals(manifests)) {
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        }
+        return path;
+    }
+
+    public List<String> names() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(manifests)) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().endsWith(".tmp")) {
+                    names.add(path.getFileName().toString());
+                }
+            }
+        }
+        return names;
+    }
+
+    public List<ChunkRef> readManifest(String name) throws IOException {
+        List<String> lines = Files.readAllLines(manifestPath(name), StandardCharsets.UTF_8);
+        List<ChunkRef> refs = new ArrayList<>(lines.size());
+        for (int i = 1; i < lines.size(); i++) {
+            String[] parts = lines.get(i).split(" ");
+            refs.add(new ChunkRef(parts[0], Integer.parseInt(parts[1])));
+        }
+        return refs;
+    }
+
+    public long size(String name) throws IOException {
+        try (InputStream in = Files.newInputStream(manifestPath(name))) {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                sb.append((char) b);
+            }
+            return Long.parseLong(sb.toString().trim());
+        }
+    }
+
+    /** Publishes {@code name} as the given chunks, replacing any earlier version atomically. */
+    public void writeManifest(String name, List<ChunkRef> refs) throws IOException {
+        long size = 0;
+        for (ChunkRef ref : refs) {
+            long stored;
+            try {
+                stored = Files.size(chunkPath(ref.hash()));
+            } catch (NoSuchFileException e) {
+                throw new IOException("Missing chunk " + ref.hash());
+            }
+            // A wrong length would publish a file that cannot be read back as sent
+            if (stored != ref.length()) {
+                throw new IOException("Chunk " + ref.hash() + " is " + stored + " bytes, not " + ref.length());
+            }
+            size += ref.length();
+        }
+        Path target = manifestPath(name);
+        boolean replaced = Files.exists(target);
+        Path temp = manifests.resolve(name + "." + System.nanoTime() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(Long.toString(size));
+            writer.newLine();
+            for (ChunkRef ref : refs) {
+                writer.write(ref.hash() + " " + ref.length());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (replaced) {
+            requestSweep();
+        }
+    }
+
+    public boolean delete(String name) throws IOException {
+        boolean deleted = Files.deleteIfExists(manifestPath(name));
+        if (deleted) {
+            requestSweep();
+        }
+        return deleted;
+    }
+
+    public boolean rename(String oldName, String newName) throws IOException {
+        try {
+            Files.move(manifestPath(oldName), manifestPath(newName), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException | AtomicMoveNotSupportedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Moves a plain file into the store: its chunks are kept (once), a manifest is
+     * written under {@code name} and the plain copy is removed.
+     */
+    public void ingest(File file, String name) throws IOException {
+        List<ChunkRef> refs = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            Chunker.split(in, (data, length, offset) -> {
+                String hash = hash(data, 0, length);
+                putChunk(hash, data, length);
+                refs.add(new ChunkRef(hash, length));
+            });
+        }
+        writeManifest(name, refs);
+        Files.delete(file.toPath());
+    }
+
+    public ChunkedFile open(String name) throws IOException {
+        return exists(name) ? new ChunkedFile(readManifest(name)) : null;
+    }
+
+    private void requestSweep() {
+        sweepRequests.incrementAndGet();
+        if (sweeping.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("chunk-sweep").start(() -> {
+                try {
+                    // Deletes that arrive while a sweep runs are folded into one more pass
+                    while (sweepRequests.getAndSet(0) > 0) {
+                        sweep();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Chunk sweep failed: " + e.getMessage());
+                } finally {
+                    sweeping.set(false);
+                }
+            });
+        }
+    }
+
+    private void sweep() throws IOException {
+        long cutoff = System.currentTimeMillis() - SWEEP_GRACE_MILLIS;
+        Set<String> live = new HashSet<>();
+        for (String name : names()) {
+            try {
+                for (ChunkRef ref : readManifest(name)) {
+                    live.add(ref.hash());
+                }
+            } catch (NoSuchFileException e) {
+                // deleted while we were looking
+            }
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> fanout = Files.newDirectoryStream(chunks)) {
+            for (Path dir : fanout) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path chunk : stream) {
+                        String hash = chunk.getFileName().toString();
+                        if (!live.contains(hash) && Files.getLastModifiedTime(chunk).toMillis() < cutoff) {
+                            Files.deleteIfExists(chunk);
+                            removed++;
+                        }
+                    }
+                }
+            }
+        }
+        if (removed > 0) {
+            System.out.println("Chunk sweep removed " + removed + " unreferenced chunks");
+        }
+    }
+
+    /** Read access to a stored file as if it were one contiguous file. */
+    public class ChunkedFile implements Closeable {
+        private final List<ChunkRef> refs;
+        private final long[] starts;
+        private final long size;
+        private int openIndex = -1;
+        private FileChannel openChannel;
+
+        private ChunkedFile(List<ChunkRef> refs) {
+            this.refs = refs;
+            this.starts = new long[refs.size()];
+            long position = 0;
+            for (int i = 0; i < refs.size(); i++) {
+                starts[i] = position;
+                position += refs.get(i).length();
+            }
+            this.size = position;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        private int indexOf(long position) {
+            int lo = 0;
+            int hi = starts.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (starts[mid] <= position) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        private FileChannel channel(int index) throws IOException {
+            if (index != openIndex) {
+                if (openChannel != null) {
+                    openChannel.close();
+                }
+                openChannel = FileChannel.open(chunkPath(refs.get(index).hash()), StandardOpenOption.READ);
+                openIndex = index;
+            }
+            return openChannel;
+        }
+
+        /** Same contract as {@link FileChannel#read(ByteBuffer, long)}. */
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int index = indexOf(position);
+            FileChannel channel = channel(index);
+            long inner = position - starts[index];
+            int limit = dst.limit();
+            dst.limit((int) Math.min(limit, dst.position() + (refs.get(index).length() - inner)));
+            try {
+                return channel.read(dst, inner);
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        /** Sends a byte range chunk by chunk, zero-copy whenever {@link Transfers#send} can be. */
+        public void send(long offset, long length, OutputStream out, SocketChannel socketChannel) throws IOException {
+            long sent = 0;
+            while (sent < length) {
+                int index = indexOf(offset + sent);
+                long inner = offset + sent - starts[index];
+                long n = Math.min(refs.get(index).length() - inner, length - sent);
+                Transfers.send(channel(index), inner, n, out, socketChannel);
+                sent += n;
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (openChannel != null) {
+                openChannel.close();
+            }
+        }
+    }
+}
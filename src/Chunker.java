@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with a gear rolling hash. Boundaries depend on the bytes
+ * around them rather than on absolute offsets, so inserting data near the start of a
+ * file only changes the chunks around the edit. Client and server must cut identically,
+ * so the parameters and the gear table seed are fixed.
+ */
+public class Chunker {
+    public static final int MIN_CHUNK = 16 * 1024;
+    public static final int MAX_CHUNK = 256 * 1024;
+    // Top 16 bits zero: a boundary about every 64 KiB past the minimum. The high bits
+    // mix in the last 64 bytes, the low bits only the last few.
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_C0DEL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public interface ChunkConsumer {
+        void accept(byte[] data, int length, long offset) throws IOException;
+    }
+
+    /** Reads {@code in} to the end and hands each chunk to {@code consumer} in order. */
+    public static void split(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] chunk = new byte[MAX_CHUNK];
+        int length = 0;
+        long offset = 0;
+        long hash = 0;
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            for (int i = 0; i < n; i++) {
+                byte b = buffer[i];
+                chunk[length++] = b;
+                hash = (hash << 1) + GEAR[b & 0xFF];
+                if ((length >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) || length == MAX_CHUNK) {
+                    consumer.accept(chunk, length, offset);
+                    offset += length;
+                    length = 0;
+                    hash = 0;
+                }
+            }
+        }
+        if (length > 0) {
+            consumer.accept(chunk, length, offset);
+        }
+    }
+}
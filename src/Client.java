@@ -1,36 +1,58 @@
 import java.io.*;
-import java.net.Socket;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 public class Client {
+    private static ClientConfig config;
+    private static final int LIST_PAGE_SIZE = 1000;
+    // An unfinished download, which a later attempt resumes
+    static final String PART_SUFFIX = ".part";
+    // Sizes from the most recent listing, so a download can pick its strategy without a probe
+    private static Map<String, Long> listedSizes = Map.of();
+
     public static void main(String[] args) {
-        if (args.length != 2) {
+        config = ClientConfig.parse(args);
+        if (config == null) {
             System.out.println("Please provide the server address and port as arguments.");
             return;
         }
-        String serverAddress = args[0];
-        int port = Integer.parseInt(args[1]);
+        String serverAddress = config.host;
+        int port = config.port;
+        Transfers.configure(config.bufferSize, config.zeroCopy);
+        if (config.script != null) {
+            System.exit(ClientScript.run(config) ? 0 : 1);
+        }
         Scanner scanner = new Scanner(System.in);
-        Map<String, Map<String, BiConsumer<Socket, BufferedReader>>> commands = getCommandHandlers();
+        Map<String, Map<String, Consumer<ServerConnection>>> commands = getCommandHandlers();
 
         System.out.println("Welcome to the File Explorer Client!");
         System.out.println();
         System.out.println("Available commands:");
         int count = 1;
-        for (Map.Entry<String, Map<String, BiConsumer<Socket, BufferedReader>>> command : commands.entrySet()) {
+        for (Map.Entry<String, Map<String, Consumer<ServerConnection>>> command : commands.entrySet()) {
             for (String desc : command.getValue().keySet()) {
                 System.out.printf("  %d) %-15s : %s%n", count++, command.getKey(), desc);
             }
         }
         System.out.println();
 
-        try (Socket socket = new Socket(serverAddress, port)) {
+        try (ServerConnection connection = ServerConnection.open(config)) {
             System.out.println("Connected to the echo server at " + serverAddress + ":" + port);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
             while (true) {
                 System.out.println("Enter a command to proceed (or 'run quit' to quit at any time). ");
@@ -39,44 +61,49 @@ public class Client {
                     continue;
                 }
 
-                Map<String, BiConsumer<Socket, BufferedReader>> handlerMap = commands.get(input);
+                Map<String, Consumer<ServerConnection>> handlerMap = commands.get(input);
                 if (handlerMap == null) {
                     System.out.println("Unknown command: " + input);
                     continue;
                 }
-                BiConsumer<Socket, BufferedReader> handler = handlerMap.values().iterator().next();
-                handler.accept(socket, reader);
+                Consumer<ServerConnection> handler = handlerMap.values().iterator().next();
+                handler.accept(connection);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private static Map<String, Map<String, BiConsumer<Socket, BufferedReader>>> getCommandHandlers() {
-        Map<String, Map<String, BiConsumer<Socket, BufferedReader>>> handlers = new HashMap<>();
+    private static Map<String, Map<String, Consumer<ServerConnection>>> getCommandHandlers() {
+        Map<String, Map<String, Consumer<ServerConnection>>> handlers = new HashMap<>();
 
         handlers.put("run list", Map.of("list <directory> - List files on the server", Client::handleGetListCommand));
         handlers.put("run delete", Map.of("delete <filename> - Remove a file on the server", Client::handleDeleteCommand));
         handlers.put("run rename", Map.of("rename <oldname> <newname> - Rename a file on the server", Client::handleRenameCommand));
         handlers.put("run download", Map.of("download <filename> - Download a file from the server", Client::handleDownloadCommand));
         handlers.put("run upload", Map.of("upload <filename> - Upload a file to the server", Client::handleUploadCommand));
+        handlers.put("run mget", Map.of("mget <names or globs> - Download many files in one request", Client::handleMgetCommand));
+        handlers.put("run mput", Map.of("mput <names or globs> - Upload many files in one request", Client::handleMputCommand));
+        handlers.put("run mdelete", Map.of("mdelete <names or globs> - Remove many files on the server", Client::handleMdeleteCommand));
+        handlers.put("run mrename", Map.of("mrename <old new>... - Rename many files on the server", Client::handleMrenameCommand));
+        handlers.put("run sync", Map.of("sync - Make the server match ClientFiles, or the other way round", Client::handleSyncCommand));
         handlers.put("run quit", Map.of("quit - Exit the client application", Client::handleQuitCommand));
 
         return handlers;
     }
 
-    private static void handleGetListCommand(Socket socket, BufferedReader reader) {
+    private static void handleGetListCommand(ServerConnection connection) {
        try {
-            listServerFiles(socket, reader);
+            listServerFiles(connection);
            System.out.println("------------------------------------------------------------------");
 
        } catch (IOException e) {
            throw new RuntimeException(e);
        }
     }
-    private static void handleDeleteCommand(Socket socket, BufferedReader reader) {
+    private static void handleDeleteCommand(ServerConnection connection) {
          try {
-            listServerFiles(socket, reader);
+            listServerFiles(connection);
             System.out.println("Enter the name of the file to delete from the server:");
             Scanner scanner = new Scanner(System.in);
             String fileName = scanner.nextLine();
@@ -84,9 +111,9 @@ public class Client {
                 System.out.println("No filename provided. Aborting delete.");
                 return;
             }
-            sendRequest(socket, "delete", fileName);
+            sendRequest(connection, "delete", fileName);
              System.out.println("deleting ....");
-            String response = reader.readLine();
+            String response = connection.readLine();
             if (response.startsWith("ERROR")) {
                 System.out.println(response);
                 return;
@@ -102,9 +129,9 @@ public class Client {
         }
 
     }
-    private static void handleRenameCommand(Socket socket, BufferedReader reader) {
+    private static void handleRenameCommand(ServerConnection connection) {
           try {
-             listServerFiles(socket, reader);
+             listServerFiles(connection);
              System.out.println("Enter the name of the file to rename:");
              Scanner scanner = new Scanner(System.in);
              String oldName = scanner.nextLine();
@@ -118,9 +145,9 @@ public class Client {
                 System.out.println("No new filename provided. Aborting rename.");
                 return;
             }
-            sendRequest(socket, "rename", oldName + "?" + newName);
+            sendRequest(connection, "rename", oldName + "?" + newName);
             System.out.println("renaming ....");
-            String response = reader.readLine();
+            String response = connection.readLine();
              if (response.startsWith("ERROR")) {
                  System.out.println(response);
                  return;
@@ -135,9 +162,9 @@ public class Client {
              e.printStackTrace();
          }
     }
-    private static void handleDownloadCommand(Socket socket, BufferedReader reader) {
+    private static void handleDownloadCommand(ServerConnection connection) {
         try {
-            listServerFiles(socket, reader);
+            listServerFiles(connection);
             System.out.println("Enter the name of the file to request from the server:");
             Scanner scanner = new Scanner(System.in);
             String fileName = scanner.nextLine();
@@ -147,41 +174,19 @@ public class Client {
                 return;
             }
 
-            sendRequest(socket, "download", fileName);
             System.out.println("downloading ....");
-            String response = reader.readLine();
-            if (response.startsWith("ERROR")) {
-                System.out.println(response);
-                return;
-            }
-            String[] parts = response.split("\\?");
-            long fileSize = Long.parseLong(parts[1]);
-
-            // Read file contents
-            File downloadFolder = new File("ClientFiles");
-            if (!downloadFolder.exists()) {
-                downloadFolder.mkdirs();
-            }
-
-            File outputFile = new File(downloadFolder, fileName);
-            try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                byte[] buffer = new byte[4096];
-                long totalRead = 0;
-                int bytesRead;
-
-                while (totalRead < fileSize && (bytesRead = socket.getInputStream().read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                    totalRead += bytesRead;
-                }
-            }
+            // The listing shown just before already told us the size, so no probe is needed
+            File outputFile = download(connection, config, fileName, listedSizes.getOrDefault(fileName, -1L), new File("ClientFiles"));
 
             System.out.println("File downloaded successfully to: " + outputFile.getAbsolutePath());
+        } catch (ServerError e) {
+            System.out.println(e.getMessage());
         } catch (IOException e) {
             System.err.println("I/O error during download: " + e.getMessage());
             e.printStackTrace();
         }
     }
-    private static void handleUploadCommand(Socket socket, BufferedReader reader) {
+    private static void handleUploadCommand(ServerConnection connection) {
         try {
             System.out.println("-------------------------------------------------------------------");
             System.out.println("Displaying files in the local ClientFiles directory:");
@@ -197,7 +202,7 @@ public class Client {
                 return;
             }
             for (int i = 0; i < localFiles.length; i++) {
-                if (localFiles[i].isFile()) {
+                if (localFiles[i].isFile() && !localFiles[i].getName().endsWith(PART_SUFFIX)) {
                     System.out.println((i + 1) + ". " + localFiles[i].getName());
                 }
             }
@@ -213,18 +218,8 @@ public class Client {
                 System.out.println("File not found for upload: " + fileToUpload.getAbsolutePath());
                 return;
             }
-            long size = fileToUpload.length();
-            sendRequest(socket, "upload", fileName + "?" + size);
             System.out.println("uploading ....");
-            try (FileInputStream fis = new FileInputStream(fileToUpload)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    socket.getOutputStream().write(buffer, 0, bytesRead);
-                }
-                socket.getOutputStream().flush();
-            }
-            String response = reader.readLine();
+            String response = upload(connection, config, fileToUpload);
             if (response.startsWith("ERROR")) {
                 System.out.println(response);
                 return;
@@ -239,40 +234,387 @@ public class Client {
             e.printStackTrace();
         }
     }
-    private static void handleQuitCommand(Socket socket, BufferedReader reader) {
+    /**
+     * Downloads {@code fileName} into {@code folder} the best available way: resuming a
+     * {@code .part} file, over several connections when the file is large, or as one
+     * stream. {@code knownSize} saves a size probe; pass -1 when it is not known.
+     */
+    static File download(ServerConnection connection, ClientConfig config, String fileName, long knownSize, File folder) throws IOException {
+        long remoteSize = new File(folder, fileName + PART_SUFFIX).exists() || config.streams == 1
+                ? -1 : knownSize >= 0 ? knownSize : remoteSize(connection, fileName);
+        int streams = ParallelTransfer.streamsFor(remoteSize, config.streams);
+        if (remoteSize > 0 && streams > 1) {
+            System.out.println("Downloading " + remoteSize + " bytes over " + streams + " connections");
+            return ParallelTransfer.download(config, fileName, remoteSize, folder, streams);
+        }
+        return downloadFile(connection, fileName, folder);
+    }
+
+    /** Uploads {@code file} by chunk, over several connections, or as one stream; returns the server's reply. */
+    static String upload(ServerConnection connection, ClientConfig config, File file) throws IOException {
+        int streams = ParallelTransfer.streamsFor(file.length(), config.streams);
+        // A deduplicating upload returns null when the server has no chunk store
+        String response = config.dedup ? DedupUpload.upload(connection, file) : null;
+        // A delta upload returns null when the server has no copy of the file yet
+        if (response == null && config.deltaMin > 0 && file.length() >= config.deltaMin) {
+            response = DeltaUpload.upload(connection, file);
+            if (response != null && response.startsWith("ERROR")) {
+                System.out.println("Delta upload failed (" + response + "), sending the whole file");
+                response = null;
+            }
+        }
+        if (response == null && streams > 1) {
+            System.out.println("Uploading " + file.length() + " bytes over " + streams + " connections");
+            response = ParallelTransfer.upload(config, connection, file, streams);
+        } else if (response == null) {
+            response = uploadFile(connection, file);
+        }
+        return response;
+    }
+
+    /** Asks for an empty range of {@code fileName}, which costs no data but reveals its size; -1 if unavailable. */
+    static long remoteSize(ServerConnection connection, String fileName) throws IOException {
+        sendRequest(connection, "download", fileName + "?0?0");
+        String response = connection.readLine();
+        if (response == null || !response.startsWith("OK")) {
+            return -1;
+        }
+        return Long.parseLong(response.split("\\?")[2]);
+    }
+
+    /**
+     * Downloads {@code fileName} into {@code folder}. Bytes go to {@code name.part} first;
+     * if an earlier attempt left one behind, only the missing tail is requested, along with
+     * a checksum of the bytes held so the server can refuse if the file has changed since.
+     * Returns the finished file, or throws {@link ServerError} if the server refused.
+     */
+    static File downloadFile(ServerConnection connection, String fileName, File folder) throws IOException {
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        File outputFile = new File(folder, fileName);
+        File partFile = new File(folder, fileName + PART_SUFFIX);
+        long offset = partFile.isFile() ? partFile.length() : 0;
+        String resume = "";
+        if (offset > 0) {
+            System.out.println("Resuming download of " + fileName + " at byte " + offset);
+            resume = "?resume=" + prefixChecksum(partFile, offset);
+        }
+        sendRequest(connection, "download", (offset > 0 ? fileName + "?" + offset + resume : fileName) + codecOffer(connection) + verifyOption(connection));
+        String response = connection.readLine();
+        if (response != null && response.startsWith("ERROR") && offset > 0) {
+            // The server copy no longer matches what we have (it changed or shrank): start over
+            System.out.println("Cannot resume (" + response + "), downloading from the start");
+            offset = 0;
+            sendRequest(connection, "download", fileName + codecOffer(connection) + verifyOption(connection));
+            response = connection.readLine();
+        }
+        if (response == null) {
+            throw new IOException("Connection closed by server");
+        }
+        if (response.startsWith("ERROR")) {
+            throw new ServerError(response);
+        }
+        String[] parts = response.split("\\?");
+        long length = Long.parseLong(parts[1]);
+
+        try (FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            fileChannel.truncate(offset);
+            StreamChecksum checksum = StreamChecksum.create(connection.verify());
+            receiveBody(connection, parts, fileChannel, offset, length, checksum);
+            try {
+                verifyTrailer(connection, checksum);
+            } catch (IOException e) {
+                // Resuming from corrupt bytes would only keep them, so drop what this attempt wrote
+                fileChannel.truncate(offset);
+                throw e;
+            }
+        }
+        Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return outputFile;
+    }
+
+    /**
+     * Uploads {@code file}, first asking the server how much of an interrupted upload of
+     * the same name it already holds and sending only the rest. Returns the server's reply.
+     */
+    static String uploadFile(ServerConnection connection, File file) throws IOException {
+        String fileName = file.getName();
+        long size = file.length();
+        sendRequest(connection, "uploadstatus", fileName);
+        String status = connection.readLine();
+        long offset = 0;
+        if (status != null && status.startsWith("OK?")) {
+            long partial = Long.parseLong(status.substring(3));
+            if (partial > 0 && partial < size) {
+                // Those bytes may be from an older version of the file, so have the server check them
+                sendRequest(connection, "uploadstatus", fileName + "?" + partial + "?resume=" + prefixChecksum(file, partial));
+                status = connection.readLine();
+                if (status != null && status.equals("OK?" + partial)) {
+                    offset = partial;
+                    System.out.println("Resuming upload of " + fileName + " at byte " + offset);
+                }
+            }
+        }
+        String codecSpec = uploadCodec(connection, file);
+        sendRequest(connection, "upload", fileName + "?" + size + (offset > 0 ? "?" + offset : "")
+                + (codecSpec != null ? "?codec=" + codecSpec : "") + verifyOption(connection));
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            sendBody(connection, codecSpec, fileChannel, offset, size - offset, StreamChecksum.create(connection.verify()));
+        }
+        String response = connection.readLine();
+        return response == null ? "ERROR: Connection closed by server" : response;
+    }
+
+    /** The {@code resume=} token for the first {@code length} bytes of {@code file}. */
+    static String prefixChecksum(File file, long length) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return StreamChecksum.ofPrefix(StreamChecksum.CRC32C, fileChannel::read, length);
+        }
+    }
+
+    /** The {@code ?codecs=} option offered on downloads, or an empty string when compression is off. */
+    static String codecOffer(ServerConnection connection) {
+        return connection.compression() == null ? "" : "?codecs=" + connection.compression();
+    }
+
+    /** The {@code ?verify=} option asking for a checksum trailer, or an empty string when verification is off. */
+    static String verifyOption(ServerConnection connection) {
+        return connection.verify() == null ? "" : "?verify=" + connection.verify();
+    }
+
+    /** Reads the trailer that follows a verified body and throws if it disagrees with {@code checksum}. */
+    static void verifyTrailer(ServerConnection connection, StreamChecksum checksum) throws IOException {
+        if (checksum == null) {
+            return;
+        }
+        String failure = checksum.verify(connection.readLine());
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    /**
+     * The codec to compress an upload of {@code file} with: the configured one, if the
+     * server supports it and the file is not already compressed, otherwise {@code null}.
+     */
+    static String uploadCodec(ServerConnection connection, File file) throws IOException {
+        String compression = connection.compression();
+        if (compression == null || !Codecs.isCompressible(file)) {
+            return null;
+        }
+        String name = compression.split(":", 2)[0];
+        return connection.serverCodecs().contains(name) && Codecs.get(name) != null ? compression : null;
+    }
+
+    /**
+     * Reads a download body described by the reply {@code header}, inflating it if the server
+     * compressed it, and adds the bytes to {@code checksum} unless it is {@code null}.
+     */
+    static void receiveBody(ServerConnection connection, String[] header, FileChannel fileChannel, long offset, long length,
+                            StreamChecksum checksum) throws IOException {
+        String codecSpec = header.length > 3 ? header[3] : Codecs.IDENTITY;
+        Codec codec = Codecs.get(codecSpec.split(":", 2)[0]);
+        if (codec != null) {
+            long wireBytes = Transfers.receiveEncoded(connection.input(), fileChannel, offset, length, codec, checksum);
+            System.out.printf("Received %d bytes as %d compressed (%s)%n", length, wireBytes, codecSpec);
+        } else {
+            Transfers.receive(connection.input(), connection.channel(), fileChannel, offset, length, checksum);
+        }
+    }
+
+    /** Sends an upload body, followed by its checksum trailer unless {@code checksum} is {@code null}. */
+    static void sendBody(ServerConnection connection, String codecSpec, FileChannel fileChannel, long offset, long length,
+                         StreamChecksum checksum) throws IOException {
+        if (codecSpec != null) {
+            Codec codec = Codecs.get(codecSpec.split(":", 2)[0]);
+            Transfers.sendEncoded(fileChannel::read, offset, length, connection.output(), codec, Codecs.levelOf(codecSpec), checksum);
+        } else {
+            Transfers.send(fileChannel, offset, length, connection.output(), connection.channel(), checksum);
+        }
+        if (checksum != null) {
+            connection.output().write(checksum.trailer().getBytes(StandardCharsets.UTF_8));
+            connection.output().flush();
+        }
+    }
+
+    private static void handleSyncCommand(ServerConnection connection) {
+        Scanner scanner = new Scanner(System.in);
+        System.out.println("Enter push (server matches ClientFiles) or pull (ClientFiles matches the server):");
+        String direction = scanner.nextLine().trim();
+        if (!direction.equals("push") && !direction.equals("pull")) {
+            System.out.println("Unknown direction: " + direction + ". Aborting sync.");
+            return;
+        }
+        System.out.println("Also delete files missing from the source? (y/n)");
+        boolean delete = scanner.nextLine().trim().equalsIgnoreCase("y");
+        System.out.println("syncing ....");
+        // Its own pool, so the changed files move in parallel
+        try (FileClient client = new FileClient(config)) {
+            DirectorySync sync = new DirectorySync(client, new File("ClientFiles"), delete, false);
+            System.out.println("Sync finished: " + (direction.equals("push") ? sync.push() : sync.pull()).join());
+        } catch (CompletionException e) {
+            System.err.println("Sync failed: " + e.getCause().getMessage());
+        }
+    }
+
+    private static void handleMgetCommand(ServerConnection connection) {
+        try {
+            System.out.println("Enter the file names or glob patterns to download, separated by spaces:");
+            List<String> patterns = readWords(new Scanner(System.in));
+            if (patterns.isEmpty()) {
+                System.out.println("No files given. Aborting download.");
+                return;
+            }
+            System.out.println("downloading ....");
+            List<File> files = BatchTransfer.download(connection, patterns, new File("ClientFiles"));
+            long bytes = files.stream().mapToLong(File::length).sum();
+            System.out.println("Downloaded " + files.size() + " files (" + bytes + " bytes) to ClientFiles");
+        } catch (IOException e) {
+            System.err.println("I/O error during batch download: " + e.getMessage());
+        }
+    }
+
+    private static void handleMputCommand(ServerConnection connection) {
+        try {
+            System.out.println("Enter the local file names or glob patterns to upload, separated by spaces:");
+            List<String> patterns = readWords(new Scanner(System.in));
+            List<File> files = new ArrayList<>();
+            File[] localFiles = new File("ClientFiles").listFiles();
+            for (String pattern : patterns) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                for (File file : localFiles == null ? new File[0] : localFiles) {
+                    if (file.isFile() && !file.getName().endsWith(PART_SUFFIX) && !files.contains(file)
+                            && matcher.matches(Path.of(file.getName()))) {
+                        files.add(file);
+                    }
+                }
+            }
+            if (files.isEmpty()) {
+                System.out.println("No local files match. Aborting upload.");
+                return;
+            }
+            System.out.println("uploading " + files.size() + " files ....");
+            printResults(BatchTransfer.upload(connection, files));
+        } catch (IOException e) {
+            System.err.println("I/O error during batch upload: " + e.getMessage());
+        }
+    }
+
+    private static void handleMdeleteCommand(ServerConnection connection) {
+        try {
+            System.out.println("Enter the file names or glob patterns to delete, separated by spaces:");
+            List<String> patterns = readWords(new Scanner(System.in));
+            if (patterns.isEmpty()) {
+                System.out.println("No files given. Aborting delete.");
+                return;
+            }
+            printResults(BatchTransfer.delete(connection, patterns));
+        } catch (IOException e) {
+            System.err.println("I/O error during batch delete: " + e.getMessage());
+        }
+    }
+
+    private static void handleMrenameCommand(ServerConnection connection) {
+        try {
+            System.out.println("Enter one 'oldname newname' pair per line, then an empty line:");
+            Scanner scanner = new Scanner(System.in);
+            List<String[]> pairs = new ArrayList<>();
+            List<String> pair;
+            while ((pair = readWords(scanner)).size() == 2) {
+                pairs.add(pair.toArray(new String[0]));
+            }
+            if (pairs.isEmpty()) {
+                System.out.println("No pairs given. Aborting rename.");
+                return;
+            }
+            printResults(BatchTransfer.rename(connection, pairs));
+        } catch (IOException e) {
+            System.err.println("I/O error during batch rename: " + e.getMessage());
+        }
+    }
+
+    private static List<String> readWords(Scanner scanner) {
+        String line = scanner.hasNextLine() ? scanner.nextLine().trim() : "";
+        return line.isEmpty() ? List.of() : List.of(line.split("\\s+"));
+    }
+
+    private static void printResults(List<String> results) {
+        int failed = 0;
+        for (String result : results) {
+            if (result == null || !result.startsWith("OK")) {
+                failed++;
+            }
+            System.out.println(result);
+        }
+        System.out.println((results.size() - failed) + " succeeded, " + failed + " failed.");
+    }
+
+    private static void handleQuitCommand(ServerConnection connection) {
         System.out.println("Goodbye!");
         try {
-            socket.close();
+            connection.close();
         } catch (IOException e) {
             // ignore
         }
         System.exit(0);
     }
-    private static void listServerFiles(Socket socket, BufferedReader reader) throws IOException {
+    private static void listServerFiles(ServerConnection connection) throws IOException {
         System.out.println("-------------------------------------------------------------------");
         System.out.println("Displaying files on the server:");
         System.out.println("-------------------------------------------------------------------");
-        sendRequest(socket, "list", null);
-
-        // Read the count of files
-        int fileCount = Integer.parseInt(reader.readLine());
-
-        if (fileCount == 0) {
-            System.out.println("No files found on server.");
+        Map<String, Long> sizes = new HashMap<>();
+        sendRequest(connection, "list", listPage(0));
+        int total = readListPage(connection, sizes);
+        FrameClient frames = connection.frames();
+        if (frames != null) {
+            // Ask for every remaining page at once, so the rest arrives in one round trip
+            List<FrameClient.Call> pages = new ArrayList<>();
+            for (int offset = sizes.size(); total > 0 && offset < total; offset += LIST_PAGE_SIZE) {
+                pages.add(frames.submit("list", listPage(offset), false));
+            }
+            for (FrameClient.Call page : pages) {
+                readListPage(page, sizes);
+            }
         } else {
-            // Read exactly that many filenames
-            for (int i = 0; i < fileCount; i++) {
-                String filename = reader.readLine();
-                System.out.println((i + 1) + ". " + filename);
+            // Fetch in pages so a huge directory never arrives as one reply
+            while (total > sizes.size()) {
+                sendRequest(connection, "list", listPage(sizes.size()));
+                if (readListPage(connection, sizes) <= 0) {
+                    break;
+                }
             }
         }
+
+        if (sizes.isEmpty() && total >= 0) {
+            System.out.println("No files found on server.");
+        }
+        listedSizes = sizes;
+    }
+
+    private static String listPage(int offset) {
+        return "sort=name?offset=" + offset + "?limit=" + LIST_PAGE_SIZE;
     }
 
-    private static void sendRequest(Socket socket, String command, String args) throws IOException {
-        OutputStream outputStream = socket.getOutputStream();
+    // Prints one page of a metadata listing and returns the total count, or -1 after an error.
+    private static int readListPage(LineInput reply, Map<String, Long> sizes) throws IOException {
+        String line = reply.readLine();
+        String[] header = line == null ? new String[]{"ERROR: Connection closed by server"} : line.split("\\?");
+        if (!header[0].equals("OK")) {
+            System.out.println(String.join("?", header));
+            return -1;
+        }
+        int returned = Integer.parseInt(header[1]);
+        for (int i = 0; i < returned; i++) {
+            String[] entry = reply.readLine().split("\\?");
+            sizes.put(entry[0], Long.parseLong(entry[1]));
+            System.out.printf("%d. %s (%d bytes, %s)%n", sizes.size(), entry[0], Long.parseLong(entry[1]),
+                    Instant.ofEpochMilli(Long.parseLong(entry[2])).truncatedTo(ChronoUnit.SECONDS));
+        }
+        return Integer.parseInt(header[2]);
+    }
 
-        String payload = command + (args == null ? "" : "?" + args) + "\n";
-        outputStream.write(payload.getBytes(StandardCharsets.UTF_8));
-        outputStream.flush();
+    static void sendRequest(ServerConnection connection, String command, String args) throws IOException {
+        connection.send(command, args);
     }
 }
@@ -0,0 +1,95 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Startup options for {@link Client}: the server address and port, followed by optional
+ * {@code --key=value} flags.
+ */
+public class ClientConfig {
+    public final String host;
+    public final int port;
+    public final int bufferSize;
+    public final boolean zeroCopy;
+    /** Connections per large transfer; 0 lets {@link ParallelTransfer} pick from the file size. */
+    public final int streams;
+    /** Codec offered for transfers, as {@code name[:level]}, or {@code null} to send raw bytes. */
+    public final String compression;
+    /** Upload only the chunks a deduplicating server does not already hold. */
+    public final boolean dedup;
+    /** Files at least this large are sent as a delta against the server's copy, if it has one; 0 never. */
+    public final long deltaMin;
+    /**
+     * Checksum ({@code crc32c} or {@code sha256}) each transfer body is verified with, or {@code null}
+     * for none, the default: a checksummed body goes through the heap instead of zero-copy.
+     */
+    public final String verify;
+    /** {@code text} for the line protocol (the default, whose bodies can go zero-copy), or {@code framed} to pipeline requests over {@link Frames}. */
+    public final String protocol;
+    /** Connections a {@link FileClient} keeps open for its requests. */
+    public final int poolSize;
+    /** Downloads and uploads a {@link FileClient} runs at once; the rest wait in its queue. */
+    public final int maxTransfers;
+    /** Transfers that may wait for a slot before submitting another one blocks the caller. */
+    public final int queueSize;
+    /** File of commands to run without prompting, or {@code null} for the interactive client. */
+    public final String script;
+    private final Map<String, String> options;
+
+    private ClientConfig(String host, int port, Map<String, String> options) {
+        this.host = host;
+        this.port = port;
+        this.options = options;
+        this.bufferSize = Integer.parseInt(options.getOrDefault("buffer-size", String.valueOf(64 * 1024)));
+        this.zeroCopy = Boolean.parseBoolean(options.getOrDefault("zero-copy", "true"));
+        this.streams = Integer.parseInt(options.getOrDefault("streams", "0"));
+        if (streams < 0) {
+            throw new IllegalArgumentException("streams must be 0 (automatic) or more");
+        }
+        this.dedup = Boolean.parseBoolean(options.getOrDefault("dedup", "false"));
+        this.deltaMin = Long.parseLong(options.getOrDefault("delta-min", String.valueOf(1024 * 1024)));
+        if (deltaMin < 0) {
+            throw new IllegalArgumentException("delta-min cannot be negative");
+        }
+        String checksum = options.getOrDefault("verify", "none");
+        this.verify = checksum.equals("none") ? null : checksum;
+        if (verify != null && StreamChecksum.create(verify) == null) {
+            throw new IllegalArgumentException("verify must be one of " + StreamChecksum.names() + " or 'none', got: " + verify);
+        }
+        this.protocol = options.getOrDefault("protocol", "text");
+        if (!protocol.equals(Frames.PROTOCOL) && !protocol.equals("text")) {
+            throw new IllegalArgumentException("protocol must be 'framed' or 'text', got: " + protocol);
+        }
+        this.poolSize = Integer.parseInt(options.getOrDefault("pool-size", "4"));
+        this.maxTransfers = Integer.parseInt(options.getOrDefault("max-transfers", "4"));
+        this.queueSize = Integer.parseInt(options.getOrDefault("queue-size", "256"));
+        if (poolSize < 1 || maxTransfers < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("pool-size, max-transfers and queue-size must be at least 1");
+        }
+        this.script = options.get("script");
+        String codec = options.getOrDefault("compression", "none");
+        this.compression = codec.equals("none") ? null : codec;
+        if (compression != null && Codecs.get(compression.split(":", 2)[0]) == null) {
+            throw new IllegalArgumentException("Unknown compression codec: " + compression);
+        }
+    }
+
+    /** The same options for another server, such as one node of a cluster. */
+    public ClientConfig forNode(String host, int port) {
+        return new ClientConfig(host, port, options);
+    }
+
+    /** Returns {@code null} when the address and port are missing. */
+    public static ClientConfig parse(String[] args) {
+        if (args.length < 2) {
+            return null;
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                String[] kv = args[i].substring(2).split("=", 2);
+                options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+            }
+        }
+        return new ClientConfig(args[0], Integer.parseInt(args[1]), options);
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@code --script=<file>} through a {@link FileClient} instead of prompting. Each line
+ * is one command, and commands are started without waiting for the ones before them:
+ * <pre>
+ *   list [prefix]
+ *   download &lt;name&gt; [folder]
+ *   upload &lt;file&gt;
+ *   delete &lt;name&gt;
+ *   rename &lt;old&gt; &lt;new&gt;
+ *   checksum &lt;name&gt; [sha256|crc32c]
+ *   sync push|pull [--delete] [--hash]   make one side match the other (see {@link DirectorySync})
+ *   wait                  finish everything above before going on
+ * </pre>
+ * Blank lines and lines starting with {@code #} are skipped. Local files are found in, and
+ * downloads go to, {@code ClientFiles} unless an absolute path is given.
+ */
+public class ClientScript {
+    private static final Path LOCAL_FOLDER = Path.of("ClientFiles");
+
+    /** Runs the script and returns {@code true} if every command succeeded. */
+    static boolean run(ClientConfig config) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Path.of(config.script));
+        } catch (IOException e) {
+            System.err.println("Cannot read script " + config.script + ": " + e.getMessage());
+            return false;
+        }
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        long start = System.nanoTime();
+        try (FileClient client = new FileClient(config)) {
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.equals("wait")) {
+                    waitFor(pending);
+                    continue;
+                }
+                String label = "line " + (i + 1) + " (" + line + ")";
+                CompletableFuture<String> result;
+                try {
+                    result = start(client, line.split("\\s+"));
+                } catch (IllegalArgumentException e) {
+                    System.out.println(label + ": " + e.getMessage());
+                    failed.incrementAndGet();
+                    continue;
+                }
+                pending.add(result.whenComplete((message, error) -> {
+                    if (error == null) {
+                        succeeded.incrementAndGet();
+                        System.out.println(label + ": " + message);
+                    } else {
+                        failed.incrementAndGet();
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        System.out.println(label + " failed: " + cause.getMessage());
+                    }
+                }));
+            }
+            waitFor(pending);
+        }
+        System.out.printf("%d succeeded, %d failed in %d ms.%n", succeeded.get(), failed.get(),
+                (System.nanoTime() - start) / 1_000_000);
+        return failed.get() == 0;
+    }
+
+    private static CompletableFuture<String> start(FileClient client, String[] words) {
+        String command = words[0];
+        int argCount = words.length - 1;
+        switch (command) {
+            case "list" -> {
+                expect(argCount, 0, 1, "list [prefix]");
+                return client.list(argCount == 1 ? words[1] : "").thenApply(files -> {
+                    StringBuilder out = new StringBuilder(files.size() + " files");
+                    for (FileClient.RemoteFile file : files) {
+                        out.append(System.lineSeparator()).append("  ").append(file.name())
+                                .append(" (").append(file.size()).append(" bytes)");
+                    }
+                    return out.toString();
+                });
+            }
+            case "download" -> {
+                expect(argCount, 1, 2, "download <name> [folder]");
+                File folder = argCount == 2 ? LOCAL_FOLDER.resolve(words[2]).toFile() : LOCAL_FOLDER.toFile();
+                return client.download(words[1], folder).thenApply(file -> "saved " + file.length() + " bytes to " + file.getPath());
+            }
+            case "upload" -> {
+                expect(argCount, 1, 1, "upload <file>");
+                File file = LOCAL_FOLDER.resolve(words[1]).toFile();
+                if (!file.isFile()) {
+                    throw new IllegalArgumentException("File not found for upload: " + file.getPath());
+                }
+                return client.upload(file);
+            }
+            case "delete" -> {
+                expect(argCount, 1, 1, "delete <name>");
+                return client.delete(words[1]);
+            }
+            case "rename" -> {
+                expect(argCount, 2, 2, "rename <old> <new>");
+                return client.rename(words[1], words[2]);
+            }
+            case "checksum" -> {
+                expect(argCount, 1, 2, "checksum <name> [sha256|crc32c]");
+                return client.checksum(words[1], argCount == 2 ? words[2] : StreamChecksum.SHA256);
+            }
+            case "sync" -> {
+                expect(argCount, 1, 3, "sync push|pull [--delete] [--hash]");
+                List<String> flags = List.of(words).subList(2, words.length);
+                if (!flags.stream().allMatch(flag -> flag.equals("--delete") || flag.equals("--hash"))) {
+                    throw new IllegalArgumentException("Usage: sync push|pull [--delete] [--hash]");
+                }
+                DirectorySync sync = new DirectorySync(client, LOCAL_FOLDER.toFile(), flags.contains("--delete"), flags.contains("--hash"));
+                return switch (words[1]) {
+                    case "push" -> sync.push();
+                    case "pull" -> sync.pull();
+                    default -> throw new IllegalArgumentException("Usage: sync push|pull [--delete] [--hash]");
+                };
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    private static void expect(int argCount, int min, int max, String usage) {
+        if (argCount < min || argCount > max) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+
+    // Failures were already counted and printed by each future's own handler
+    private static void waitFor(List<CompletableFuture<?>> pending) {
+        for (CompletableFuture<?> future : pending) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                // reported above
+            }
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Per-connection state for one client of the blocking engine. Every connection gets its
+ * own session, so handlers read upload bodies from the session's stream instead of a
+ * shared one.
+ */
+public class ClientSession implements Session {
+    private final Socket socket;
+    private final SocketInput in;
+    private final OutputStream out;
+    private volatile boolean open = true;
+
+    public ClientSession(Socket socket) throws IOException {
+        this.socket = socket;
+        // Replies are written whole, so Nagle's algorithm only delays a body behind its header line
+        socket.setTcpNoDelay(true);
+        this.in = new SocketInput(socket.getInputStream());
+        this.out = socket.getOutputStream();
+    }
+
+    @Override
+    public SocketInput input() {
+        return in;
+    }
+
+    @Override
+    public OutputStream output() {
+        return out;
+    }
+
+    @Override
+    public String remoteAddress() {
+        return String.valueOf(socket.getInetAddress());
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && !socket.isClosed();
+    }
+
+    @Override
+    public SocketChannel channel() {
+        return socket.getChannel();
+    }
+
+    // Ends only this session; the server keeps accepting other clients.
+    @Override
+    public void close() {
+        open = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.io.IOException;
+
+/**
+ * A streaming compression scheme for file bodies. Data is compressed block by block so
+ * a transfer never has to be spooled. Each block travels as
+ * {@code [int compressedLength][int originalLength][bytes]} and a {@code 0,0} block ends
+ * the body, so the receiver always knows both sizes. New schemes are added with
+ * {@link Codecs#register(Codec)}.
+ */
+public interface Codec {
+    String name();
+
+    /** {@code level} is codec specific; codecs without levels ignore it. */
+    Compressor compressor(int level);
+
+    Decompressor decompressor();
+
+    interface Compressor extends AutoCloseable {
+        /** Compresses {@code src[off, off+len)} into {@code dst}, returning the number of bytes written. */
+        int compress(byte[] src, int off, int len, byte[] dst);
+
+        /** Largest output {@link #compress} may produce for {@code len} input bytes. */
+        int maxCompressedLength(int len);
+
+        @Override
+        void close();
+    }
+
+    interface Decompressor extends AutoCloseable {
+        /** Decompresses one block, which must expand to exactly {@code originalLength} bytes. */
+        void decompress(byte[] src, int off, int len, byte[] dst, int originalLength) throws IOException;
+
+        /** Largest block a compressor of this codec sends for {@code originalLength} bytes; anything bigger is corrupt. */
+        int maxCompressedLength(int originalLength);
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Registry of the {@link Codec}s this build can speak, plus the check that keeps the
+ * server from wasting CPU on content that is already compressed.
+ */
+public class Codecs {
+    public static final String IDENTITY = "identity";
+    public static final int DEFAULT_LEVEL = 6;
+
+    private static final Map<String, Codec> CODECS = new ConcurrentHashMap<>();
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "png", "jpg", "jpeg", "gif", "webp", "pdf", "zip", "gz", "tgz", "bz2", "xz",
+            "7z", "rar", "zst", "jar", "mp3", "mp4", "mkv", "mov", "avi", "docx", "xlsx", "pptx");
+
+    static {
+        register(new DeflateCodec());
+    }
+
+    public static void register(Codec codec) {
+        CODECS.put(codec.name(), codec);
+    }
+
+    /** Returns the codec called {@code name}, or {@code null} for identity and unknown names. */
+    public static Codec get(String name) {
+        return name == null ? null : CODECS.get(name);
+    }
+
+    public static List<String> names() {
+        return new ArrayList<>(CODECS.keySet());
+    }
+
+    /**
+     * Picks the first codec from a client's {@code name[:level],...} offer that this side
+     * supports, or {@code null} when none is usable.
+     */
+    public static String choose(String offer) {
+        if (offer == null || offer.isBlank()) {
+            return null;
+        }
+        for (String candidate : offer.split(",")) {
+            String name = candidate.split(":", 2)[0].trim();
+            if (CODECS.containsKey(name)) {
+                return candidate.trim();
+            }
+        }
+        return null;
+    }
+
+    public static int levelOf(String spec) {
+        String[] parts = spec.split(":", 2);
+        return parts.length > 1 ? Integer.parseInt(parts[1]) : DEFAULT_LEVEL;
+    }
+
+    /** False for formats such as PNG, PDF and archives, judged by extension and magic bytes. */
+    public static boolean isCompressible(File file) {
+        byte[] magic = new byte[4];
+        int n;
+        try (InputStream in = new FileInputStream(file)) {
+            n = in.readNBytes(magic, 0, magic.length);
+        } catch (IOException e) {
+            return true;
+        }
+        return isCompressible(file.getName(), magic, n);
+    }
+
+    /** Same check for content that is not a plain file; {@code head} holds its first bytes. */
+    public static boolean isCompressible(String fileName, byte[] head, int headLength) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1))) {
+            return false;
+        }
+        if (headLength < 4) {
+            return true;
+        }
+        return !(startsWith(head, 0x89, 'P', 'N', 'G')        // PNG
+                || startsWith(head, '%', 'P', 'D', 'F')        // PDF
+                || startsWith(head, 'P', 'K', 0x03, 0x04)      // zip and friends
+                || startsWith(head, 0x1F, 0x8B)                // gzip
+                || startsWith(head, 0xFF, 0xD8, 0xFF)          // JPEG
+                || startsWith(head, 0x28, 0xB5, 0x2F, 0xFD)    // zstd
+                || startsWith(head, 'B', 'Z', 'h')             // bzip2
+                || startsWith(head, 0xFD, '7', 'z', 'X'));     // xz
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Raw deflate with one dictionary shared across blocks: each block ends in a sync
+     * flush, so it can be sent at once without losing the ratio of a single stream.
+     */
+    static class DeflateCodec implements Codec {
+        @Override
+        public String name() {
+            return "deflate";
+        }
+
+        @Override
+        public Compressor compressor(int level) {
+            Deflater deflater = new Deflater(level, true);
+            return new Compressor() {
+                @Override
+                public int compress(byte[] src, int off, int len, byte[] dst) {
+                    deflater.setInput(src, off, len);
+                    int written = deflater.deflate(dst, 0, dst.length, Deflater.SYNC_FLUSH);
+                    if (written == dst.length) {
+                        throw new IllegalStateException("Compression buffer too small for a block of " + len);
+                    }
+                    return written;
+                }
+
+                @Override
+                public int maxCompressedLength(int len) {
+                    return bound(len);
+                }
+
+                @Override
+                public void close() {
+                    deflater.end();
+                }
+            };
+        }
+
+        // zlib's deflateBound for incompressible input, plus 5 bytes for the sync flush marker
+        private static int bound(int len) {
+            return len + (len >> 12) + (len >> 14) + (len >> 25) + 13 + 5;
+        }
+
+        @Override
+        public Decompressor decompressor() {
+            Inflater inflater = new Inflater(true);
+            return new Decompressor() {
+                @Override
+                public void decompress(byte[] src, int off, int len, byte[] dst, int originalLength) throws IOException {
+                    inflater.setInput(src, off, len);
+                    int produced = 0;
+                    try {
+                        while (produced < originalLength) {
+                            int n = inflater.inflate(dst, produced, originalLength - produced);
+                            if (n == 0 && (inflater.needsInput() || inflater.finished())) {
+                                break;
+                            }
+                            produced += n;
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException("Corrupt deflate block: " + e.getMessage(), e);
+                    }
+                    if (produced != originalLength) {
+                        throw new IOException("Block expanded to " + produced + " bytes, expected " + originalLength);
+                    }
+                }
+
+                @Override
+                public int maxCompressedLength(int originalLength) {
+                    return bound(originalLength);
+                }
+
+                @Override
+                public void close() {
+                    inflater.end();
+                }
+            };
+        }
+    }
+}
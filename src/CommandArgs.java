@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code ?}-separated arguments of a command line. Positional arguments come first.
+ * Optional trailing {@code key=value} arguments follow them, so commands can grow new
+ * options without shifting the positions older clients rely on.
+ */
+public class CommandArgs {
+    private final List<String> positional = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+
+    private CommandArgs() {
+    }
+
+    public static CommandArgs parse(String s) {
+        CommandArgs args = new CommandArgs();
+        if (s == null || s.isEmpty()) {
+            return args;
+        }
+        List<String> parts = split(s);
+        for (int i = 0; i < parts.size(); i++) {
+            String part = parts.get(i);
+            int eq = part.indexOf('=');
+            // The first argument is always a file name, which may itself contain '='
+            if (i > 0 && eq > 0) {
+                args.options.put(part.substring(0, eq), part.substring(eq + 1));
+            } else {
+                args.positional.add(part);
+            }
+        }
+        return args;
+    }
+
+    /** For commands without a file name: every {@code key=value} argument is an option. */
+    public static CommandArgs parseOptions(String s) {
+        CommandArgs args = new CommandArgs();
+        if (s == null || s.isEmpty()) {
+            return args;
+        }
+        for (String part : split(s)) {
+            int eq = part.indexOf('=');
+            if (eq > 0) {
+                args.options.put(part.substring(0, eq), part.substring(eq + 1));
+            } else {
+                args.positional.add(part);
+            }
+        }
+        return args;
+    }
+
+    // Splits on '?' by scanning; no regular expression is involved
+    private static List<String> split(String s) {
+        List<String> parts = new ArrayList<>(4);
+        int start = 0;
+        int end;
+        while ((end = s.indexOf('?', start)) >= 0) {
+            parts.add(s.substring(start, end));
+            start = end + 1;
+        }
+        parts.add(s.substring(start));
+        // Match String.split, which drops trailing empty parts
+        while (parts.size() > 1 && parts.get(parts.size() - 1).isEmpty()) {
+            parts.remove(parts.size() - 1);
+        }
+        return parts;
+    }
+
+    public boolean hasOptions() {
+        return !options.isEmpty();
+    }
+
+    public int count() {
+        return positional.size();
+    }
+
+    public String get(int index) {
+        return positional.get(index);
+    }
+
+    public long getLong(int index, long defaultValue) {
+        return index < positional.size() ? Long.parseLong(positional.get(index)) : defaultValue;
+    }
+
+    public String option(String key) {
+        return options.get(key);
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Client side of a deduplicated upload. The file is chunked exactly as the server's
+ * {@link ChunkStore} would chunk it. The client asks which chunk hashes the server lacks,
+ * sends only those chunks, then commits the list of chunks that makes up the file.
+ */
+public class DedupUpload {
+    private record Piece(String hash, int length, long offset) {
+    }
+
+    /**
+     * Uploads {@code file} by chunk. Returns the server's reply, or {@code null} when the
+     * server does not deduplicate and the caller should fall back to a plain upload.
+     */
+    public static String upload(ServerConnection connection, File file) throws IOException {
+        List<Piece> pieces = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            Chunker.split(in, (data, length, offset) -> pieces.add(new Piece(ChunkStore.hash(data, 0, length), length, offset)));
+        }
+
+        StringBuilder check = new StringBuilder();
+        for (Piece piece : pieces) {
+            check.append(piece.hash()).append('\n');
+        }
+        send(connection, "chunkcheck", String.valueOf(pieces.size()), check.toString());
+        String reply = connection.readLine();
+        if (reply == null || !reply.startsWith("OK?")) {
+            return null;
+        }
+        int missingCount = Integer.parseInt(reply.substring(3));
+        Set<String> missing = new HashSet<>();
+        for (int i = 0; i < missingCount; i++) {
+            missing.add(connection.readLine());
+        }
+
+        // One body for all missing chunks, so the server answers once
+        Map<String, Piece> toSend = new LinkedHashMap<>();
+        long sentBytes = 0;
+        for (Piece piece : pieces) {
+            if (missing.contains(piece.hash()) && !toSend.containsKey(piece.hash())) {
+                toSend.put(piece.hash(), piece);
+                sentBytes += piece.length();
+            }
+        }
+        System.out.printf("Server already has %d of %d chunks; sending %d bytes of %d%n",
+                pieces.size() - missingCount, pieces.size(), sentBytes, file.length());
+        if (!toSend.isEmpty()) {
+            Client.sendRequest(connection, "chunkput", String.valueOf(toSend.size()));
+            OutputStream out = connection.output();
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(Chunker.MAX_CHUNK);
+                for (Piece piece : toSend.values()) {
+                    out.write((piece.hash() + "?" + piece.length() + "\n").getBytes(StandardCharsets.UTF_8));
+                    buffer.clear().limit(piece.length());
+                    while (buffer.hasRemaining()) {
+                        if (fileChannel.read(buffer, piece.offset() + buffer.position()) == -1) {
+                            throw new IOException(file + " changed while it was being uploaded");
+                        }
+                    }
+                    out.write(buffer.array(), 0, piece.length());
+                }
+            }
+            out.flush();
+            String stored = connection.readLine();
+            if (stored == null || !stored.startsWith("OK")) {
+                return stored == null ? "ERROR: Connection closed by server" : stored;
+            }
+        }
+
+        StringBuilder commit = new StringBuilder();
+        for (Piece piece : pieces) {
+            commit.append(piece.hash()).append('?').append(piece.length()).append('\n');
+        }
+        send(connection, "chunkcommit", file.getName() + "?" + pieces.size(), commit.toString());
+        String response = connection.readLine();
+        return response == null ? "ERROR: Connection closed by server" : response;
+    }
+
+    // A command whose body is the given lines
+    private static void send(ServerConnection connection, String command, String args, String lines) throws IOException {
+        Client.sendRequest(connection, command, args);
+        connection.output().write(lines.getBytes(StandardCharsets.UTF_8));
+        connection.output().flush();
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * rsync-style block matching, shared by {@link DeltaUpload} and the server's {@code deltasig}
+ * and {@code deltaput} commands. The server describes its copy of a file as fixed-size
+ * blocks, each with a weak rolling checksum and a strong hash. The client slides a window
+ * over its new version one byte at a time; wherever the weak checksum matches a block and
+ * the strong hash confirms it, it sends a reference to that block instead of its bytes.
+ * <p>
+ * The delta is a sequence of {@code COPY?block?count} lines (blocks of the old copy),
+ * {@code DATA?length} lines each followed by that many literal bytes, and a final
+ * {@code END?sha256} with the digest of the whole new file, which the server checks
+ * before it replaces anything.
+ */
+public class DeltaSync {
+    public static final int MIN_BLOCK = 2 * 1024;
+    public static final int MAX_BLOCK = 128 * 1024;
+    // Literal runs go out in pieces of at most this much, so neither side holds more
+    static final int MAX_LITERAL = 1024 * 1024;
+
+    public record Signature(int weak, String strong) {
+    }
+
+    private DeltaSync() {
+    }
+
+    /** Block size for a file of {@code size} bytes: about its square root, so the signature stays small. */
+    public static int blockSize(long size) {
+        long root = (long) Math.sqrt((double) size);
+        return (int) Math.min(MAX_BLOCK, Math.max(MIN_BLOCK, (root + 1023) / 1024 * 1024));
+    }
+
+    /** The weak checksum of rsync: two 16-bit sums that slide one byte along in constant time. */
+    static final class Rolling {
+        private int a;
+        private int b;
+        private int length;
+
+        void reset(byte[] data, int off, int len) {
+            a = 0;
+            b = 0;
+            length = len;
+            for (int i = off; i < off + len; i++) {
+                a += data[i] & 0xFF;
+                b += a;
+            }
+        }
+
+        /** Drops {@code out} from the front of the window and appends {@code in}. */
+        void roll(byte out, byte in) {
+            a += (in & 0xFF) - (out & 0xFF);
+            b += a - length * (out & 0xFF);
+        }
+
+        int value() {
+            return (a & 0xFFFF) | (b << 16);
+        }
+    }
+
+    static int weak(byte[] data, int off, int len) {
+        Rolling rolling = new Rolling();
+        rolling.reset(data, off, len);
+        return rolling.value();
+    }
+
+    /** First 128 bits of the block's SHA-256, as hex; only consulted once the weak checksum matched. */
+    static String strong(MessageDigest digest, byte[] data, int off, int len) {
+        digest.update(data, off, len);
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Signatures of every whole block of {@code base}; a shorter tail is left for the client to send. */
+    public static List<Signature> signatures(FileChannel base, int blockSize) throws IOException {
+        long size = base.size();
+        List<Signature> signatures = new ArrayList<>((int) (size / blockSize));
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        for (long position = 0; position + blockSize <= size; position += blockSize) {
+            readFully(base, buffer.clear(), position);
+            signatures.add(new Signature(weak(buffer.array(), 0, blockSize), strong(digest, buffer.array(), 0, blockSize)));
+        }
+        return signatures;
+    }
+
+    /**
+     * Reads a delta from {@code in} up to its {@code END} line and writes the file it
+     * describes to {@code target}, copying referenced blocks from {@code base} (which may be
+     * {@code null} if the old copy is gone). The whole delta is always consumed so the
+     * connection stays in step. {@code checksum}, a SHA-256, sees every byte written and is
+     * checked against the {@code END} line. Returns {@code null} on success, or why the
+     * result is unusable.
+     */
+    public static String rebuild(InputStream in, FileChannel base, int blockSize, long size, FileChannel target,
+                                 StreamChecksum checksum) throws IOException {
+        byte[] buffer = new byte[Math.max(blockSize, 64 * 1024)];
+        long written = 0;
+        String failure = null;
+        while (true) {
+            String line = Server.readLine(in);
+            if (line == null) {
+                throw new IOException("Unexpected end of stream inside the delta");
+            }
+            String[] parts = line.split("\\?");
+            switch (parts[0]) {
+                case "COPY" -> {
+                    long from = Long.parseLong(parts[1]) * blockSize;
+                    long length = Long.parseLong(parts[2]) * blockSize;
+                    if (base == null || from < 0 || length < 0 || from + length > base.size()) {
+                        failure = failure == null ? "Block reference outside the server's copy: " + line : failure;
+                        continue;
+                    }
+                    for (long done = 0; done < length; ) {
+                        int n = (int) Math.min(buffer.length, length - done);
+                        readFully(base, ByteBuffer.wrap(buffer, 0, n), from + done);
+                        checksum.update(buffer, 0, n);
+                        written += writeFully(target, ByteBuffer.wrap(buffer, 0, n), written);
+                        done += n;
+                    }
+                }
+                case "DATA" -> {
+                    long length = Long.parseLong(parts[1]);
+                    for (long done = 0; done < length; ) {
+                        int n = (int) Math.min(buffer.length, length - done);
+                        if (in.readNBytes(buffer, 0, n) != n) {
+                            throw new IOException("Unexpected end of stream inside the delta");
+                        }
+                        checksum.update(buffer, 0, n);
+                        written += writeFully(target, ByteBuffer.wrap(buffer, 0, n), written);
+                        done += n;
+                    }
+                }
+                case "END" -> {
+                    if (failure != null) {
+                        return failure;
+                    }
+                    if (written != size) {
+                        return "Rebuilt " + written + " bytes, expected " + size;
+                    }
+                    if (parts.length < 2 || !checksum.value().equals(parts[1])) {
+                        return "Rebuilt file does not match its checksum; the server's copy changed";
+                    }
+                    return null;
+                }
+                default -> throw new IOException("Unexpected line in the delta: " + line);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("File shrank while it was being read");
+            }
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + length - buffer.remaining());
+        }
+        return length;
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client side of a delta upload. The server sends the block signatures of its current copy
+ * ({@code deltasig}); the client sends back only the bytes that changed, plus references
+ * to the blocks the server already has ({@code deltaput}). See {@link DeltaSync}.
+ */
+public class DeltaUpload {
+    private final OutputStream out;
+    private long copyStart = -1;
+    private long copyCount;
+    private long literalBytes;
+    private long reusedBlocks;
+
+    private DeltaUpload(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Uploads {@code file} as a delta against the server's copy of the same name. Returns the
+     * server's reply, or {@code null} when the server has no copy to compare against and the
+     * caller should fall back to a plain upload.
+     */
+    public static String upload(ServerConnection connection, File file) throws IOException {
+        Client.sendRequest(connection, "deltasig", file.getName());
+        String reply = connection.readLine();
+        if (reply == null || !reply.startsWith("OK?")) {
+            return null;
+        }
+        String[] header = reply.split("\\?");
+        int blockSize = Integer.parseInt(header[2]);
+        int count = Integer.parseInt(header[3]);
+        String[] strong = new String[count];
+        Map<Integer, List<Integer>> blocksBySum = new HashMap<>();
+        // One bit per 16-bit tag of the weak sum, so most misses never touch the map
+        boolean[] tags = new boolean[1 << 16];
+        for (int i = 0; i < count; i++) {
+            String[] signature = connection.readLine().split("\\?");
+            int weak = Integer.parseUnsignedInt(signature[0], 16);
+            strong[i] = signature[1];
+            blocksBySum.computeIfAbsent(weak, k -> new ArrayList<>(1)).add(i);
+            tags[tag(weak)] = true;
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            Client.sendRequest(connection, "deltaput", file.getName() + "?" + size + "?" + blockSize);
+            DeltaUpload delta = new DeltaUpload(new BufferedOutputStream(connection.output(), 64 * 1024));
+            StreamChecksum whole = StreamChecksum.create(StreamChecksum.SHA256);
+            MessageDigest blockDigest = DeltaSync.sha256();
+            DeltaSync.Rolling rolling = new DeltaSync.Rolling();
+            boolean rollingValid = false;
+            byte[] buffer = new byte[Math.max(4 * blockSize, 4 * 1024 * 1024)];
+            int limit = 0;
+            long readPosition = 0;
+            // The window is buffer[k, k + blockSize); buffer[literal, k) has matched nothing yet
+            int k = 0;
+            int literal = 0;
+            while (true) {
+                if (k + blockSize > limit && readPosition < size) {
+                    delta.literal(buffer, literal, k);
+                    System.arraycopy(buffer, k, buffer, 0, limit - k);
+                    limit -= k;
+                    k = 0;
+                    literal = 0;
+                    while (limit < buffer.length && readPosition < size) {
+                        int n = fileChannel.read(ByteBuffer.wrap(buffer, limit,
+                                (int) Math.min(buffer.length - limit, size - readPosition)), readPosition);
+                        if (n == -1) {
+                            throw new IOException(file + " changed while it was being uploaded");
+                        }
+                        whole.update(buffer, limit, n);
+                        limit += n;
+                        readPosition += n;
+                    }
+                }
+                if (k + blockSize > limit) {
+                    break;
+                }
+                if (!rollingValid) {
+                    rolling.reset(buffer, k, blockSize);
+                    rollingValid = true;
+                }
+                int match = -1;
+                int weak = rolling.value();
+                if (tags[tag(weak)] && blocksBySum.containsKey(weak)) {
+                    String hash = DeltaSync.strong(blockDigest, buffer, k, blockSize);
+                    for (int block : blocksBySum.get(weak)) {
+                        if (strong[block].equals(hash)) {
+                            match = block;
+                            // Prefer the block that extends the current run, so runs stay one COPY line
+                            if (block == delta.copyStart + delta.copyCount) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (match >= 0) {
+                    delta.literal(buffer, literal, k);
+                    delta.copy(match);
+                    k += blockSize;
+                    literal = k;
+                    rollingValid = false;
+                } else {
+                    if (k - literal >= DeltaSync.MAX_LITERAL) {
+                        delta.literal(buffer, literal, k);
+                        literal = k;
+                    }
+                    if (k + blockSize < limit) {
+                        rolling.roll(buffer[k], buffer[k + blockSize]);
+                    } else {
+                        rollingValid = false;
+                    }
+                    k++;
+                }
+            }
+            delta.literal(buffer, literal, limit);
+            delta.flushCopy();
+            delta.out.write(("END?" + whole.value() + "\n").getBytes(StandardCharsets.UTF_8));
+            delta.out.flush();
+            System.out.printf("Reused %d blocks of the server's copy; sending %d bytes of %d%n",
+                    delta.reusedBlocks, delta.literalBytes, size);
+        }
+        return connection.readLine();
+    }
+
+    private static int tag(int weak) {
+        return (weak ^ (weak >>> 16)) & 0xFFFF;
+    }
+
+    private void copy(int block) throws IOException {
+        reusedBlocks++;
+        if (copyCount > 0 && block == copyStart + copyCount) {
+            copyCount++;
+            return;
+        }
+        flushCopy();
+        copyStart = block;
+        copyCount = 1;
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyCount > 0) {
+            out.write(("COPY?" + copyStart + "?" + copyCount + "\n").getBytes(StandardCharsets.UTF_8));
+            copyStart = -1;
+            copyCount = 0;
+        }
+    }
+
+    private void literal(byte[] data, int from, int to) throws IOException {
+        if (to <= from) {
+            return;
+        }
+        flushCopy();
+        out.write(("DATA?" + (to - from) + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(data, from, to - from);
+        literalBytes += to - from;
+    }
+}
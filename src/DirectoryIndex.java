@@ -0,0 +1,255 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory listing of the {@link Storage} roots (and of the {@link ChunkStore}, when
+ * enabled) so {@code list} is answered without touching the disk. The roots are scanned
+ * once at startup and then kept current by a {@link WatchService}. Handlers also refresh the
+ * names they change, so a client sees its own upload or rename immediately. Checksums
+ * live in a persisted {@link ChecksumIndex}; one that no transfer recorded is computed
+ * the first time it is asked for.
+ */
+public class DirectoryIndex implements Closeable {
+    /** Folder in the first root for the index's own files, hidden from clients like {@code .store}. */
+    public static final String INDEX_FOLDER = ".index";
+
+    public record Entry(String name, long size, long modified) {
+    }
+
+    public record Page(List<Entry> entries, int total) {
+    }
+
+    private final Storage storage;
+    private final ChunkStore store;
+    private final Path manifests;
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final ChecksumIndex checksums;
+    private final WatchService watcher;
+
+    /** Call {@link #start} once the index is in place to fill it and begin watching. */
+    public DirectoryIndex(Storage storage, ChunkStore store) throws IOException {
+        this.storage = storage;
+        this.store = store;
+        this.manifests = storage.primary().resolve(".store").resolve("manifests");
+        this.watcher = storage.primary().getFileSystem().newWatchService();
+        Path journal = storage.primary().resolve(INDEX_FOLDER).resolve("checksums");
+        Path oldJournal = storage.primary().resolve(".store").resolve("checksums");
+        if (Files.exists(oldJournal) && !Files.exists(journal)) {
+            Files.createDirectories(journal.getParent());
+            Files.move(oldJournal, journal);
+        }
+        this.checksums = new ChecksumIndex(journal);
+    }
+
+    /**
+     * Registers the roots with the watcher, scans them and starts the watcher thread.
+     * Registering first means a change made during the scan is still seen.
+     */
+    public void start() throws IOException {
+        for (Path root : storage.roots()) {
+            root.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        if (store != null) {
+            manifests.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        rescan();
+        checksums.compact(entries::get);
+        Thread.ofPlatform().name("listing-watcher").daemon(true).start(this::watch);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** The listed entry for {@code name}, or {@code null} if it is not listed. */
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Re-reads one name from disk; called by handlers right after they change it.
+     * Unfinished uploads ({@code .part}) and directories are never listed.
+     */
+    public void refresh(String name) {
+        if (name.contains("/") || name.contains(File.separator)) {
+            return;
+        }
+        try {
+            Path path = storage.file(name).toPath();
+            if (Files.isRegularFile(path) && !name.endsWith(Server.PART_SUFFIX)) {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                entries.put(name, new Entry(name, attrs.size(), attrs.lastModifiedTime().toMillis()));
+            } else if (store != null && !name.endsWith(".tmp") && store.exists(name)) {
+                long modified = Files.getLastModifiedTime(manifests.resolve(name)).toMillis();
+                entries.put(name, new Entry(name, store.size(name), modified));
+            } else {
+                entries.remove(name);
+                checksums.forget(name);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Gone between the check and the read: the delete event will follow
+            entries.remove(name);
+        }
+    }
+
+    private void rescan() throws IOException {
+        List<String> seen = new ArrayList<>();
+        for (Path root : storage.roots()) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                for (Path path : stream) {
+                    seen.add(path.getFileName().toString());
+                }
+            }
+        }
+        if (store != null) {
+            seen.addAll(store.names());
+        }
+        entries.keySet().retainAll(seen);
+        for (String name : seen) {
+            refresh(name);
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Too many changes to replay one by one
+                    try {
+                        rescan();
+                    } catch (IOException e) {
+                        System.err.println("Listing rescan failed: " + e.getMessage());
+                    }
+                    continue;
+                }
+                refresh(((Path) event.context()).getFileName().toString());
+            }
+            key.reset();
+        }
+    }
+
+    /**
+     * One page of entries whose names start with {@code prefix}, ordered by
+     * {@code name}, {@code size} or {@code mtime}. {@code total} counts every match.
+     */
+    public Page query(String prefix, String sort, boolean descending, int offset, int limit) {
+        NavigableMap<String, Entry> range = prefix == null || prefix.isEmpty()
+                ? entries
+                : entries.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+        List<Entry> matches;
+        if (sort == null || sort.equals("name")) {
+            matches = new ArrayList<>((descending ? range.descendingMap() : range).values());
+        } else {
+            Comparator<Entry> order = switch (sort) {
+                case "size" -> Comparator.comparingLong(Entry::size);
+                case "mtime" -> Comparator.comparingLong(Entry::modified);
+                default -> throw new IllegalArgumentException("Unknown sort key: " + sort);
+            };
+            matches = new ArrayList<>(range.values());
+            matches.sort(descending ? order.reversed().thenComparing(Entry::name) : order.thenComparing(Entry::name));
+        }
+        int from = Math.min(Math.max(offset, 0), matches.size());
+        int to = limit <= 0 ? matches.size() : (int) Math.min((long) from + limit, matches.size());
+        return new Page(matches.subList(from, to), matches.size());
+    }
+
+    /** SHA-256 of an entry's content, from the checksum index or read once and recorded there. */
+    public String hash(Entry entry) throws IOException {
+        return checksum(entry, StreamChecksum.SHA256);
+    }
+
+    /** The recorded checksum of an entry, or {@code null} when no transfer has computed it yet. */
+    public String knownChecksum(Entry entry, String algorithm) {
+        return checksums.get(entry.name(), entry.size(), entry.modified(), algorithm);
+    }
+
+    /** Records a checksum computed while {@code entry}'s bytes were transferred. */
+    public void recordChecksum(Entry entry, String algorithm, String value) throws IOException {
+        checksums.put(entry.name(), entry.size(), entry.modified(), algorithm, value);
+    }
+
+    /**
+     * Sets an entry's mtime, in epoch milliseconds, and returns the refreshed entry (or
+     * {@code null} if the file is gone). The content is unchanged, so its recorded checksums
+     * stay valid under the new mtime.
+     */
+    public Entry setModified(Entry entry, long modified) throws IOException {
+        Path path = storage.file(entry.name()).toPath();
+        Files.setLastModifiedTime(Files.isRegularFile(path) ? path : manifests.resolve(entry.name()),
+                FileTime.fromMillis(modified));
+        refresh(entry.name());
+        Entry updated = get(entry.name());
+        if (updated != null && updated.size() == entry.size()) {
+            checksums.retime(entry.name(), entry.size(), entry.modified(), updated.modified());
+        }
+        return updated;
+    }
+
+    /** An entry's checksum, reading the content only if it was never recorded at this size and mtime. */
+    public String checksum(Entry entry, String algorithm) throws IOException {
+        String known = knownChecksum(entry, algorithm);
+        if (known != null) {
+            return known;
+        }
+        StreamChecksum checksum = StreamChecksum.create(algorithm);
+        if (checksum == null) {
+            throw new IllegalArgumentException("Unknown checksum algorithm: " + algorithm);
+        }
+        Path path = storage.file(entry.name()).toPath();
+        if (Files.isRegularFile(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    checksum.update(buffer, 0, n);
+                }
+            }
+        } else if (store != null) {
+            try (ChunkStore.ChunkedFile stored = store.open(entry.name())) {
+                if (stored == null) {
+                    throw new IOException("File not found: " + entry.name());
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                long position = 0;
+                int n;
+                while ((n = stored.read(buffer.clear(), position)) > 0) {
+                    checksum.update(buffer.array(), 0, n);
+                    position += n;
+                }
+            }
+        }
+        recordChecksum(entry, algorithm, checksum.value());
+        return checksum.value();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
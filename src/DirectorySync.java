@@ -0,0 +1,169 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes the server's files match a local folder ({@code push}) or the other way round
+ * ({@code pull}). One {@code list} request brings the server's manifest (name, size, mtime
+ * and, if asked for, SHA-256); the difference is worked out locally and only new or changed
+ * files move, all at once through the {@link FileClient} pool. A sync with nothing to do
+ * therefore costs a single round trip.
+ * <p>
+ * A copied file takes its source's mtime ({@code touch} on the server, the file time
+ * locally), so the next sync sees the two as equal. Files are equal when size and mtime
+ * agree, or with {@code hashes} when size and SHA-256 do; in that mode a file whose
+ * content matches but whose mtime does not only has its mtime fixed. With {@code delete},
+ * files that exist only at the destination are removed.
+ */
+public class DirectorySync {
+    /** One file of a manifest; {@code hash} is {@code null} when it was not asked for. */
+    public record Item(String name, long size, long modified, String hash) {
+    }
+
+    private final FileClient client;
+    private final File folder;
+    private final boolean delete;
+    private final boolean hashes;
+    private final AtomicInteger copied = new AtomicInteger();
+    private final AtomicInteger touched = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private int unchanged;
+
+    public DirectorySync(FileClient client, File folder, boolean delete, boolean hashes) {
+        this.client = client;
+        this.folder = folder;
+        this.delete = delete;
+        this.hashes = hashes;
+    }
+
+    /** Uploads what is new or changed in the folder; completes with a summary of what was done. */
+    public CompletableFuture<String> push() {
+        return client.manifest(hashes).thenCompose(remote -> {
+            List<CompletableFuture<?>> pending = new ArrayList<>();
+            Map<String, Item> local = localManifest(remote);
+            for (Item item : local.values()) {
+                Item other = remote.get(item.name());
+                File file = new File(folder, item.name());
+                if (other == null || !sameContent(item, other)) {
+                    pending.add(client.upload(file)
+                            .thenCompose(reply -> client.touch(item.name(), item.modified()))
+                            .thenRun(copied::incrementAndGet));
+                } else if (other.modified() != item.modified()) {
+                    pending.add(client.touch(item.name(), item.modified()).thenRun(touched::incrementAndGet));
+                } else {
+                    unchanged++;
+                }
+            }
+            if (delete) {
+                for (String name : remote.keySet()) {
+                    if (!local.containsKey(name)) {
+                        pending.add(client.delete(name).thenRun(deleted::incrementAndGet));
+                    }
+                }
+            }
+            return finish(pending, "uploaded");
+        });
+    }
+
+    /** Downloads what is new or changed on the server; completes with a summary of what was done. */
+    public CompletableFuture<String> pull() {
+        return client.manifest(hashes).thenCompose(remote -> {
+            List<CompletableFuture<?>> pending = new ArrayList<>();
+            Map<String, Item> local = localManifest(remote);
+            for (Item item : remote.values()) {
+                Item other = local.get(item.name());
+                if (other == null || !sameContent(item, other)) {
+                    FileClient.RemoteFile file = new FileClient.RemoteFile(item.name(), item.size(), Instant.ofEpochMilli(item.modified()));
+                    pending.add(client.download(file, folder)
+                            .thenAccept(downloaded -> setModified(downloaded, item.modified()))
+                            .thenRun(copied::incrementAndGet));
+                } else if (other.modified() != item.modified()) {
+                    setModified(new File(folder, item.name()), item.modified());
+                    touched.incrementAndGet();
+                } else {
+                    unchanged++;
+                }
+            }
+            if (delete) {
+                for (String name : local.keySet()) {
+                    if (!remote.containsKey(name) && new File(folder, name).delete()) {
+                        deleted.incrementAndGet();
+                    }
+                }
+            }
+            return finish(pending, "downloaded");
+        });
+    }
+
+    private CompletableFuture<String> finish(List<CompletableFuture<?>> pending, String verb) {
+        return CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new))
+                .thenApply(done -> copied.get() + " " + verb + ", " + touched.get() + " mtimes fixed, "
+                        + deleted.get() + " deleted, " + unchanged + " unchanged");
+    }
+
+    // Without hashes, mtime decides; with them, content does and a differing mtime is only fixed.
+    private boolean sameContent(Item a, Item b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        return hashes ? a.hash() != null && a.hash().equals(b.hash()) : a.modified() == b.modified();
+    }
+
+    /**
+     * The folder's files, skipping unfinished single- and multi-stream downloads. Local files are only hashed when
+     * hashes were asked for and the server has a file of the same size to compare with.
+     */
+    private Map<String, Item> localManifest(Map<String, Item> remote) {
+        Map<String, Item> files = new HashMap<>();
+        if (!folder.isDirectory()) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder.toPath())) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attrs.isRegularFile() || name.endsWith(Client.PART_SUFFIX) || name.endsWith(ParallelTransfer.TEMP_SUFFIX)) {
+                    continue;
+                }
+                Item other = remote.get(name);
+                String hash = hashes && other != null && other.size() == attrs.size() ? sha256(path) : null;
+                files.put(name, new Item(name, attrs.size(), attrs.lastModifiedTime().toMillis(), hash));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return files;
+    }
+
+    private static String sha256(Path path) throws IOException {
+        StreamChecksum checksum = StreamChecksum.create(StreamChecksum.SHA256);
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                checksum.update(buffer, 0, n);
+            }
+        }
+        return checksum.value();
+    }
+
+    private static void setModified(File file, long modified) {
+        try {
+            Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
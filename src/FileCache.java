@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most downloaded files of {@code ServerFiles} in memory so repeat downloads
+ * skip opening and reading the file. Files below {@code mapThreshold} are copied into
+ * direct buffers; larger ones are memory-mapped. Entries are evicted least recently used
+ * first once their total size passes the byte budget.
+ * <p>
+ * A file is only cached on its second miss, so a one-off bulk download does not push the
+ * hot files out. Every hit is checked against the {@link DirectoryIndex} entry the copy
+ * was made from, and handlers that change a file {@link #invalidate} it, so a replaced
+ * file is never served stale.
+ */
+public class FileCache {
+    // Names that missed once recently; the second miss admits the file
+    private static final int RECENT_MISSES = 4096;
+
+    /** A cached file: its bytes and the listing entry they were read from. */
+    public static class Entry {
+        private final ByteBuffer data;
+        private final DirectoryIndex.Entry source;
+        private final boolean compressible;
+
+        private Entry(ByteBuffer data, DirectoryIndex.Entry source, boolean compressible) {
+            this.data = data;
+            this.source = source;
+            this.compressible = compressible;
+        }
+
+        public long size() {
+            return data.capacity();
+        }
+
+        public boolean compressible() {
+            return compressible;
+        }
+
+        /** Same contract as {@link FileChannel#read(ByteBuffer, long)}, for {@link Transfers#sendEncoded}. */
+        public int read(ByteBuffer dst, long position) {
+            if (position >= data.capacity()) {
+                return -1;
+            }
+            int n = (int) Math.min(dst.remaining(), data.capacity() - position);
+            dst.put(data.slice((int) position, n));
+            return n;
+        }
+
+        public void send(long offset, long length, OutputStream out, SocketChannel channel) throws IOException {
+            Transfers.send(data, offset, length, out, channel);
+        }
+    }
+
+    private final DirectoryIndex listing;
+    private final long budget;
+    private final long mapThreshold;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Boolean> recentMisses = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_MISSES;
+        }
+    };
+    private long cachedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FileCache(DirectoryIndex listing, long budget, long mapThreshold) {
+        this.listing = listing;
+        this.budget = budget;
+        this.mapThreshold = mapThreshold;
+    }
+
+    /** The cached copy of {@code name} if it is still current, otherwise {@code null} (a miss). */
+    public Entry get(String name) {
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(name);
+            if (entry != null && !entry.source.equals(listing.get(name))) {
+                // Changed on disk behind our back, e.g. by something other than a handler
+                remove(name);
+                entry = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Called after a miss with the file open: caches it if this is its second recent miss
+     * and it fits. Returns the new entry, or {@code null} if the caller should read the file.
+     */
+    public Entry admit(String name, FileChannel file, boolean compressible) throws IOException {
+        DirectoryIndex.Entry source = listing.get(name);
+        long size = file.size();
+        // Files over a quarter of the budget would evict too much to be worth it
+        if (source == null || source.size() != size || size == 0 || size > budget / 4 || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        lock.lock();
+        try {
+            if (recentMisses.remove(name) == null) {
+                recentMisses.put(name, Boolean.TRUE);
+                return null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        ByteBuffer data;
+        if (size >= mapThreshold) {
+            data = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } else {
+            data = ByteBuffer.allocateDirect((int) size);
+            while (data.hasRemaining()) {
+                if (file.read(data, data.position()) == -1) {
+                    // Shrank while we read it; serve it from disk this time
+                    return null;
+                }
+            }
+            data.flip();
+        }
+        Entry entry = new Entry(data.asReadOnlyBuffer(), source, compressible);
+        lock.lock();
+        try {
+            remove(name);
+            entries.put(name, entry);
+            cachedBytes += size;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (cachedBytes > budget && eldest.hasNext()) {
+                Map.Entry<String, Entry> victim = eldest.next();
+                eldest.remove();
+                cachedBytes -= victim.getValue().size();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return entry;
+    }
+
+    /** Drops {@code name}; called by every handler that writes, deletes or renames a file. */
+    public void invalidate(String name) {
+        lock.lock();
+        try {
+            remove(name);
+            recentMisses.remove(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Buffers in use by a running download stay valid; their memory is released by the GC.
+    private void remove(String name) {
+        Entry removed = entries.remove(name);
+        if (removed != null) {
+            cachedBytes -= removed.size();
+        }
+    }
+
+    /** One line of counters, as sent by the {@code cachestats} command. */
+    public String stats() {
+        int count;
+        long bytes;
+        lock.lock();
+        try {
+            count = entries.size();
+            bytes = cachedBytes;
+        } finally {
+            lock.unlock();
+        }
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long lookups = hitCount + missCount;
+        return "hits=" + hitCount + "?misses=" + missCount
+                + "?hitrate=" + (lookups == 0 ? 0 : hitCount * 100 / lookups) + "%"
+                + "?evictions=" + evictions.sum() + "?files=" + count + "?bytes=" + bytes + "?budget=" + budget;
+    }
+}
@@ -0,0 +1,331 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A non-interactive client for programs and scripts. Every call returns at once with a
+ * future, and runs on a virtual thread with a connection borrowed from a small pool, so a
+ * caller can have many requests going without opening a connection for each.
+ * <p>
+ * Downloads and uploads also take one of {@link ClientConfig#maxTransfers} slots, so only
+ * that many move data at a time while listings and renames go straight through. Transfers
+ * waiting for a slot form a queue of at most {@link ClientConfig#queueSize}; once it is
+ * full, submitting another blocks the caller until one starts.
+ * <p>
+ * Against a cluster (servers started with {@code --cluster}) the client asks the server it
+ * was pointed at for the node list once, then sends each request straight to the node that
+ * owns the file by the same {@link HashRing} the servers use, keeping a pool and transfer
+ * slots per node. Listings ask every node at once and merge the results.
+ * <p>
+ * A future fails with {@link ServerError} when the server refused the request, or another
+ * {@link IOException} when the connection failed; such a connection is dropped from the pool,
+ * as is one whose upload the server refused, since the server closes it instead of reading the body.
+ */
+public class FileClient implements Closeable {
+    private static final int LIST_PAGE_SIZE = 1000;
+
+    /** One file in a server listing. */
+    public record RemoteFile(String name, long size, Instant modified) {
+    }
+
+    /** One server: its connection pool and transfer slots. */
+    private static final class Node {
+        private final ClientConfig config;
+        private final ConcurrentLinkedDeque<ServerConnection> idle = new ConcurrentLinkedDeque<>();
+        private final Semaphore connections;
+        private final Semaphore transferSlots;
+
+        private Node(ClientConfig config) {
+            this.config = config;
+            this.connections = new Semaphore(config.poolSize, true);
+            this.transferSlots = new Semaphore(config.maxTransfers, true);
+        }
+    }
+
+    private final Node seed;
+    private final Semaphore queued;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ReentrantLock discovery = new ReentrantLock();
+    private volatile HashRing<Node> ring;
+
+    public FileClient(ClientConfig config) {
+        this.seed = new Node(config);
+        this.queued = new Semaphore(config.queueSize, true);
+    }
+
+    /** Lists the files whose names start with {@code prefix} (empty for all), sorted by name. */
+    public CompletableFuture<List<RemoteFile>> list(String prefix) {
+        return onEveryNode(connection -> {
+            List<RemoteFile> files = new ArrayList<>();
+            int total;
+            do {
+                connection.send("list", (prefix.isEmpty() ? "" : "prefix=" + prefix + "?")
+                        + "sort=name?offset=" + files.size() + "?limit=" + LIST_PAGE_SIZE);
+                String[] header = expectOk(connection.readLine()).split("\\?");
+                int returned = Integer.parseInt(header[1]);
+                total = Integer.parseInt(header[2]);
+                for (int i = 0; i < returned; i++) {
+                    String[] entry = connection.readLine().split("\\?");
+                    files.add(new RemoteFile(entry[0], Long.parseLong(entry[1]), Instant.ofEpochMilli(Long.parseLong(entry[2]))));
+                }
+                if (returned == 0) {
+                    break;
+                }
+            } while (files.size() < total);
+            return files;
+        }).thenApply(lists -> {
+            List<RemoteFile> files = new ArrayList<>();
+            lists.forEach(files::addAll);
+            files.sort(Comparator.comparing(RemoteFile::name));
+            return files;
+        });
+    }
+
+    /**
+     * Every file on the server in a single request, keyed by name, for {@link DirectorySync}.
+     * With {@code withHashes} each carries its SHA-256, which the server has mostly recorded
+     * already; otherwise {@code hash} is {@code null}.
+     */
+    public CompletableFuture<Map<String, DirectorySync.Item>> manifest(boolean withHashes) {
+        return onEveryNode(connection -> {
+            connection.send("list", "sort=name" + (withHashes ? "?hash=true" : ""));
+            String[] header = expectOk(connection.readLine()).split("\\?");
+            int returned = Integer.parseInt(header[1]);
+            Map<String, DirectorySync.Item> files = new LinkedHashMap<>();
+            for (int i = 0; i < returned; i++) {
+                String[] entry = connection.readLine().split("\\?");
+                files.put(entry[0], new DirectorySync.Item(entry[0], Long.parseLong(entry[1]), Long.parseLong(entry[2]),
+                        entry.length > 3 ? entry[3] : null));
+            }
+            return files;
+        }).thenApply(manifests -> {
+            Map<String, DirectorySync.Item> files = new TreeMap<>();
+            manifests.forEach(files::putAll);
+            return files;
+        });
+    }
+
+    /** Downloads {@code fileName} into {@code folder}; completes with the finished file. */
+    public CompletableFuture<File> download(String fileName, File folder) {
+        return transfer(fileName, false, (node, connection) -> Client.download(connection, node.config, fileName, -1, folder));
+    }
+
+    /** Like {@link #download(String, File)}, but the listed size saves asking for it. */
+    public CompletableFuture<File> download(RemoteFile file, File folder) {
+        return transfer(file.name(), false, (node, connection) -> Client.download(connection, node.config, file.name(), file.size(), folder));
+    }
+
+    /** Uploads {@code file} under its own name; completes with the server's reply. */
+    public CompletableFuture<String> upload(File file) {
+        return transfer(file.getName(), true, (node, connection) -> expectOk(Client.upload(connection, node.config, file)));
+    }
+
+    public CompletableFuture<String> delete(String fileName) {
+        return submit(() -> withConnection(route(fileName), connection -> {
+            connection.send("delete", fileName);
+            return expectOk(connection.readLine());
+        }));
+    }
+
+    public CompletableFuture<String> rename(String oldName, String newName) {
+        // Both names must belong to the same node; the server refuses a rename that would move the file
+        return submit(() -> withConnection(route(oldName), connection -> {
+            connection.send("rename", oldName + "?" + newName);
+            return expectOk(connection.readLine());
+        }));
+    }
+
+    /** Sets the server's mtime of {@code fileName}, in epoch milliseconds; completes with the mtime it now lists. */
+    public CompletableFuture<Long> touch(String fileName, long modified) {
+        return submit(() -> withConnection(route(fileName), connection -> {
+            connection.send("touch", fileName + "?" + modified);
+            return Long.parseLong(expectOk(connection.readLine()).substring(3));
+        }));
+    }
+
+    /** The server's {@code algorithm} checksum of {@code fileName}, as {@code algorithm?hex?size}. */
+    public CompletableFuture<String> checksum(String fileName, String algorithm) {
+        return submit(() -> withConnection(route(fileName), connection -> {
+            connection.send("checksum", fileName + "?algorithm=" + algorithm);
+            return expectOk(connection.readLine()).substring(3);
+        }));
+    }
+
+    private <T> CompletableFuture<T> transfer(String fileName, boolean sendsBody, NodeOperation<T> operation) {
+        // Blocks the caller while the queue is full, so a long script cannot run far ahead
+        queued.acquireUninterruptibly();
+        return submit(() -> {
+            Node node;
+            try {
+                node = route(fileName);
+                // Still counted as queued until it holds a slot, so the queue bound holds
+                node.transferSlots.acquireUninterruptibly();
+            } finally {
+                queued.release();
+            }
+            try {
+                return withConnection(node, sendsBody, connection -> operation.run(node, connection));
+            } finally {
+                node.transferSlots.release();
+            }
+        });
+    }
+
+    // Runs operation on every node at once; completes with each node's result
+    private <T> CompletableFuture<List<T>> onEveryNode(Operation<T> operation) {
+        return submit(this::ring).thenCompose(ring -> {
+            List<CompletableFuture<T>> results = new ArrayList<>();
+            for (Node node : ring.members()) {
+                results.add(submit(() -> withConnection(node, operation)));
+            }
+            return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                    .thenApply(done -> results.stream().map(CompletableFuture::join).toList());
+        });
+    }
+
+    private Node route(String fileName) throws IOException {
+        return ring().owner(fileName);
+    }
+
+    /**
+     * The nodes, asked for once with {@code nodes}. A lone server (or one too old to know the
+     * command) makes a ring of just the server this client was pointed at.
+     */
+    private HashRing<Node> ring() throws IOException {
+        HashRing<Node> current = ring;
+        if (current != null) {
+            return current;
+        }
+        discovery.lock();
+        try {
+            if (ring == null) {
+                List<String> ids = withConnection(seed, connection -> {
+                    connection.send("nodes", "");
+                    String reply = connection.readLine();
+                    if (reply == null) {
+                        throw new IOException("Connection closed by server");
+                    }
+                    List<String> nodes = new ArrayList<>();
+                    int count = reply.startsWith("OK?") ? Integer.parseInt(reply.substring(3)) : 0;
+                    for (int i = 0; i < count; i++) {
+                        nodes.add(connection.readLine());
+                    }
+                    return nodes;
+                });
+                Map<String, Node> members = new LinkedHashMap<>();
+                String seedId = seed.config.host + ":" + seed.config.port;
+                for (String id : ids) {
+                    int colon = id.lastIndexOf(':');
+                    members.put(id, id.equals(seedId) ? seed
+                            : new Node(seed.config.forNode(id.substring(0, colon), Integer.parseInt(id.substring(colon + 1)))));
+                }
+                ring = new HashRing<>(members.isEmpty() ? Map.of(seedId, seed) : members);
+            }
+            return ring;
+        } finally {
+            discovery.unlock();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private <T> T withConnection(Node node, Operation<T> operation) throws IOException {
+        return withConnection(node, false, operation);
+    }
+
+    // With sendsBody, a refusal drops the connection: the server closes it rather than read a body it refused
+    private <T> T withConnection(Node node, boolean sendsBody, Operation<T> operation) throws IOException {
+        node.connections.acquireUninterruptibly();
+        ServerConnection connection = node.idle.pollFirst();
+        try {
+            if (connection == null) {
+                connection = ServerConnection.open(node.config);
+            }
+            T result;
+            try {
+                result = operation.run(connection);
+            } catch (ServerError e) {
+                if (!sendsBody) {
+                    // The error reply was read in full, so the connection is still in step
+                    node.idle.addFirst(connection);
+                    connection = null;
+                }
+                throw e;
+            }
+            node.idle.addFirst(connection);
+            connection = null;
+            return result;
+        } finally {
+            if (connection != null) {
+                closeQuietly(connection);
+            }
+            node.connections.release();
+        }
+    }
+
+    private static String expectOk(String reply) throws IOException {
+        if (reply == null) {
+            throw new IOException("Connection closed by server");
+        }
+        if (!reply.startsWith("OK")) {
+            throw new ServerError(reply);
+        }
+        return reply;
+    }
+
+    private static void closeQuietly(ServerConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /** Waits for every submitted request to finish, then closes the pooled connections. */
+    @Override
+    public void close() {
+        executor.close();
+        List<Node> nodes = new ArrayList<>(ring != null ? ring.members() : List.of());
+        if (!nodes.contains(seed)) {
+            nodes.add(seed);
+        }
+        for (Node node : nodes) {
+            ServerConnection connection;
+            while ((connection = node.idle.pollFirst()) != null) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private interface Operation<T> {
+        T run(ServerConnection connection) throws IOException;
+    }
+
+    private interface NodeOperation<T> {
+        T run(Node node, ServerConnection connection) throws IOException;
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The client side of the {@link Frames} protocol. Any number of requests can be sent
+ * before the first reply arrives; a reader thread sorts incoming frames by request id into
+ * each {@link Call}'s own reply stream, so replies may come back in any order.
+ * <p>
+ * Reply bytes are buffered per call until they are read, so a caller that pipelines large
+ * downloads should read them as they arrive.
+ */
+public class FrameClient implements Closeable {
+    private final InputStream in;
+    private final OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, Call> calls = new ConcurrentHashMap<>();
+    private volatile IOException failure;
+
+    FrameClient(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+        Thread.ofVirtual().name("frame-reader").start(this::readFrames);
+    }
+
+    /**
+     * Sends one request without waiting for its reply. With {@code withBody} the request
+     * data is written to {@link Call#body()} and ended by {@link Call#endBody()}.
+     */
+    public Call submit(String command, String args, boolean withBody) throws IOException {
+        int code = Frames.COMMANDS.indexOf(command);
+        if (code < 0) {
+            throw new IllegalArgumentException("Command has no frame code: " + command);
+        }
+        byte[] argBytes = (args == null ? "" : args).getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[1 + argBytes.length];
+        payload[0] = (byte) code;
+        System.arraycopy(argBytes, 0, payload, 1, argBytes.length);
+        Call call = new Call(nextId.incrementAndGet(), withBody);
+        calls.put(call.id, call);
+        if (failure != null) {
+            // The reader already stopped and will never complete this call
+            call.fail(failure);
+            throw failure;
+        }
+        Frames.write(out, writeLock, Frames.REQUEST, withBody ? 0 : Frames.FLAG_END, call.id, payload);
+        return call;
+    }
+
+    private void readFrames() {
+        byte[] header = new byte[Frames.HEADER_SIZE];
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            while (Frames.readHeader(in, header)) {
+                Call call = calls.get(Frames.requestId(header));
+                int remaining = Frames.payloadLength(header);
+                byte opcode = Frames.opcode(header);
+                if (opcode == Frames.ERROR) {
+                    String message = new String(in.readNBytes(remaining), StandardCharsets.UTF_8);
+                    if (call != null) {
+                        call.fail(new IOException("Server failed request: " + message));
+                    }
+                    continue;
+                }
+                if (opcode != Frames.REPLY) {
+                    throw new IOException("Unexpected frame opcode " + opcode);
+                }
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (n == -1) {
+                        throw new IOException("Connection closed inside a reply frame");
+                    }
+                    if (call != null) {
+                        call.reply.write(buffer, 0, n);
+                    }
+                    remaining -= n;
+                }
+                if (call != null && Frames.isEnd(header)) {
+                    call.complete();
+                }
+            }
+            failure = new IOException("Connection closed by server");
+        } catch (IOException e) {
+            failure = e;
+        }
+        for (Call call : calls.values()) {
+            call.fail(failure);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** One request in flight and, as it arrives, its reply. */
+    public class Call implements LineInput {
+        private final int id;
+        private final BytePipe reply = new BytePipe(8 * 1024, Integer.MAX_VALUE);
+        private final Frames.FrameOutputStream body;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Call(int id, boolean withBody) {
+            this.id = id;
+            this.body = withBody ? new Frames.FrameOutputStream(out, writeLock, Frames.BODY, id, Transfers.bufferSize()) : null;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        /** Where the request data goes; {@code null} for a call submitted without a body. */
+        public OutputStream body() {
+            return body;
+        }
+
+        /** Sends whatever body is still buffered and tells the server there is no more. */
+        public void endBody() throws IOException {
+            if (body != null) {
+                body.finish();
+            }
+        }
+
+        /** The reply bytes, exactly as the text protocol would have sent them. */
+        public InputStream reply() {
+            return reply.inputStream();
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            return reply.readLine();
+        }
+
+        /** Completes when the whole reply has arrived, or exceptionally if the request failed. */
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+
+        private void complete() {
+            calls.remove(id);
+            reply.closeWrite();
+            done.complete(null);
+        }
+
+        private void fail(IOException e) {
+            calls.remove(id);
+            reply.closeWrite();
+            done.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The server side of the {@link Frames} protocol on one connection. The connection's
+ * thread only reads frames: each REQUEST starts its handler on a virtual thread with a
+ * {@link RequestSession} of its own, BODY frames are fed to that session's input, and the
+ * handler's output goes back as REPLY frames tagged with the request id.
+ */
+public class FrameServer {
+    // Requests one connection may have running before we stop reading new frames
+    private static final int MAX_IN_FLIGHT = 64;
+    // Unread body bytes buffered per request before the reader waits for its handler
+    private static final int BODY_HIGH_WATER = 1024 * 1024;
+
+    private final Session connection;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<Integer, RequestSession> requests = new ConcurrentHashMap<>();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    private FrameServer(Session connection) {
+        this.connection = connection;
+    }
+
+    /** Serves frames on a connection that just agreed to switch, until it is closed. */
+    static void serve(Session connection) {
+        new FrameServer(connection).readFrames();
+    }
+
+    private void readFrames() {
+        InputStream in = connection.input();
+        byte[] header = new byte[Frames.HEADER_SIZE];
+        byte[] buffer = new byte[64 * 1024];
+        boolean quit = false;
+        try {
+            // Nothing after a quit is read; it only waits for the requests before it
+            while (!quit && connection.isOpen() && Frames.readHeader(in, header)) {
+                int length = Frames.payloadLength(header);
+                int id = Frames.requestId(header);
+                switch (Frames.opcode(header)) {
+                    case Frames.REQUEST -> quit = start(id, in.readNBytes(length), Frames.isEnd(header));
+                    case Frames.BODY -> {
+                        RequestSession request = requests.get(id);
+                        int remaining = length;
+                        while (remaining > 0) {
+                            int n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                            if (n == -1) {
+                                throw new IOException("Connection closed inside a body frame");
+                            }
+                            // Body for a request that already finished is dropped
+                            if (request != null) {
+                                request.inbound.awaitSpace();
+                                request.inbound.write(buffer, 0, n);
+                            }
+                            remaining -= n;
+                        }
+                        if (request != null && Frames.isEnd(header)) {
+                            request.inbound.closeWrite();
+                        }
+                    }
+                    default -> throw new IOException("Unexpected frame opcode " + Frames.opcode(header));
+                }
+            }
+        } catch (IOException e) {
+            if (connection.isOpen()) {
+                System.err.println("Framed session error for " + connection.remoteAddress() + ": " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (RequestSession request : requests.values()) {
+                request.inbound.closeWrite();
+            }
+        }
+        // Let running requests send their replies before the connection is torn down;
+        // this is the only place that waits for them, whether the peer quit or hung up
+        inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+        if (quit) {
+            connection.close();
+        }
+    }
+
+    // Returns whether the request was a quit, after which no more frames are read.
+    private boolean start(int id, byte[] payload, boolean noBody) throws IOException, InterruptedException {
+        int code = payload.length > 0 ? payload[0] & 0xFF : -1;
+        if (code < 0 || code >= Frames.COMMANDS.size()) {
+            Frames.write(connection.output(), writeLock, Frames.ERROR, Frames.FLAG_END, id,
+                    ("Unknown command code " + code).getBytes(StandardCharsets.UTF_8));
+            return false;
+        }
+        String command = Frames.COMMANDS.get(code);
+        String args = new String(payload, 1, payload.length - 1, StandardCharsets.UTF_8);
+        RequestSession request = new RequestSession(id);
+        if (noBody) {
+            request.inbound.closeWrite();
+        }
+        // Waiting here stops reading new frames, which pushes back on a client that floods us
+        inFlight.acquire();
+        requests.put(id, request);
+        Thread.ofVirtual().name("request-" + id).start(() -> run(request, command, args));
+        return command.equals("quit");
+    }
+
+    private void run(RequestSession request, String command, String args) {
+        Log.info("Client cmd #" + request.id + ": " + command + (args.isEmpty() ? "" : "?" + args));
+        String failure = null;
+        try {
+            Server.execute(command, args, request);
+        } catch (RuntimeException e) {
+            // Only this request fails; the connection and the other requests carry on
+            failure = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+        try {
+            if (failure == null) {
+                request.out.finish();
+            } else {
+                request.out.flush();
+                Frames.write(connection.output(), writeLock, Frames.ERROR, Frames.FLAG_END, request.id,
+                        failure.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not finish request " + request.id + ": " + e.getMessage());
+        } finally {
+            request.inbound.discard();
+            requests.remove(request.id);
+            inFlight.release();
+        }
+    }
+
+    /**
+     * What one framed request's handler sees: its own body as input, and output that
+     * becomes REPLY frames. There is no channel, so transfers use the buffered copy path.
+     */
+    private class RequestSession implements Session {
+        private final int id;
+        private final BytePipe inbound = new BytePipe(8 * 1024, BODY_HIGH_WATER);
+        private final Frames.FrameOutputStream out;
+        private volatile boolean closed;
+
+        RequestSession(int id) {
+            this.id = id;
+            this.out = new Frames.FrameOutputStream(connection.output(), writeLock, Frames.REPLY, id, Transfers.bufferSize());
+        }
+
+        @Override
+        public InputStream input() {
+            return inbound.inputStream();
+        }
+
+        @Override
+        public OutputStream output() {
+            return out;
+        }
+
+        @Override
+        public String remoteAddress() {
+            return connection.remoteAddress();
+        }
+
+        @Override
+        public Session connection() {
+            return connection.connection();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && connection.isOpen();
+        }
+
+        // Ends only this request: the rest of its body is dropped, the connection stays up.
+        @Override
+        public void close() {
+            closed = true;
+            inbound.discard();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Version 1 of the binary framed protocol. Every connection starts in the text protocol;
+ * a client that sends {@code protocol?framed?1} and gets {@code OK?framed?1} back switches
+ * both directions to frames:
+ * <pre>
+ *   int   payload length
+ *   byte  opcode       REQUEST, BODY, REPLY or ERROR
+ *   byte  flags        END marks the last frame of a request body or of a reply
+ *   int   request id   chosen by the client, echoed on every frame of the reply
+ *   ...   payload
+ * </pre>
+ * A REQUEST payload is a command code followed by the UTF-8 arguments of the matching text
+ * command. Upload bodies and other request data follow in BODY frames, and a REPLY carries
+ * exactly the bytes the text protocol would have sent, so one set of handlers serves both.
+ * Requests on a connection run concurrently and their replies can arrive in any order.
+ */
+public class Frames {
+    static final String PROTOCOL = "framed";
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 10;
+    static final int MAX_PAYLOAD = 1024 * 1024;
+
+    static final byte REQUEST = 1;
+    static final byte BODY = 2;
+    static final byte REPLY = 3;
+    static final byte ERROR = 4;
+
+    static final byte FLAG_END = 1;
+
+    // A command's code is its position here, so new commands are only ever appended
+    static final List<String> COMMANDS = List.of("list", "delete", "rename", "download", "upload", "uploadstatus",
+            "uploadbegin", "uploadcommit", "codecs", "chunkcheck", "chunkput", "chunkcommit", "quit",
+            "mget", "mput", "mdelete", "mrename", "cachestats", "stats",
+            "deltasig", "deltaput", "checksum", "touch", "nodes");
+
+    private Frames() {
+    }
+
+    /** Reads one header into {@code header}; returns {@code false} on a clean end of stream. */
+    static boolean readHeader(InputStream in, byte[] header) throws IOException {
+        int n = in.readNBytes(header, 0, HEADER_SIZE);
+        if (n == 0) {
+            return false;
+        }
+        if (n < HEADER_SIZE) {
+            throw new EOFException("Connection closed inside a frame header");
+        }
+        int length = payloadLength(header);
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        return true;
+    }
+
+    static int payloadLength(byte[] header) {
+        return getInt(header, 0);
+    }
+
+    static byte opcode(byte[] header) {
+        return header[4];
+    }
+
+    static boolean isEnd(byte[] header) {
+        return (header[5] & FLAG_END) != 0;
+    }
+
+    static int requestId(byte[] header) {
+        return getInt(header, 6);
+    }
+
+    /**
+     * Writes {@code frame}, whose first {@link #HEADER_SIZE} bytes are left free for the
+     * header, as one write so frames from concurrent requests never interleave.
+     */
+    static void write(OutputStream out, ReentrantLock lock, byte[] frame, int payloadLength,
+                      byte opcode, byte flags, int requestId) throws IOException {
+        putInt(frame, 0, payloadLength);
+        frame[4] = opcode;
+        frame[5] = flags;
+        putInt(frame, 6, requestId);
+        lock.lock();
+        try {
+            out.write(frame, 0, HEADER_SIZE + payloadLength);
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void write(OutputStream out, ReentrantLock lock, byte opcode, byte flags, int requestId,
+                      byte[] payload) throws IOException {
+        byte[] frame = new byte[HEADER_SIZE + payload.length];
+        System.arraycopy(payload, 0, frame, HEADER_SIZE, payload.length);
+        write(out, lock, frame, payload.length, opcode, flags, requestId);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    /**
+     * Cuts whatever is written into frames of one opcode and request id: a frame goes out
+     * when the buffer fills or on {@link #flush()}, and {@link #finish()} sends the last one
+     * with {@link #FLAG_END} set.
+     */
+    static class FrameOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final ReentrantLock lock;
+        private final byte opcode;
+        private final int requestId;
+        private final byte[] frame;
+        private int count;
+        private boolean finished;
+
+        FrameOutputStream(OutputStream out, ReentrantLock lock, byte opcode, int requestId, int bufferSize) {
+            this.out = out;
+            this.lock = lock;
+            this.opcode = opcode;
+            this.requestId = requestId;
+            this.frame = new byte[HEADER_SIZE + Math.min(bufferSize, MAX_PAYLOAD)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == frame.length - HEADER_SIZE) {
+                flush();
+            }
+            frame[HEADER_SIZE + count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                throw new IOException("Frame stream already finished");
+            }
+            while (len > 0) {
+                int n = Math.min(len, frame.length - HEADER_SIZE - count);
+                System.arraycopy(b, off, frame, HEADER_SIZE + count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == frame.length - HEADER_SIZE) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0 && !finished) {
+                Frames.write(out, lock, frame, count, opcode, (byte) 0, requestId);
+                count = 0;
+            }
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /** Sends what is buffered as the final frame; later calls do nothing. */
+        public void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+                Frames.write(out, lock, frame, count, opcode, FLAG_END, requestId);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing. Every member sits at many points on a 64-bit ring, placed by the
+ * hash of its id, and a name belongs to the first member at or after the name's own hash.
+ * Adding or removing a member only moves the names next to its points, about one in n,
+ * and any two processes built from the same ids agree on every owner without talking.
+ * {@link Storage} uses it to pick a root directory and {@link FileClient} a server node.
+ */
+public class HashRing<T> {
+    // Enough points that each member's share stays within a few percent of even
+    private static final int POINTS_PER_MEMBER = 160;
+
+    private final NavigableMap<Long, T> ring = new TreeMap<>();
+    private final Map<String, T> members;
+
+    /** {@code members} maps each member's stable id (a path, a host:port) to the member. */
+    public HashRing(Map<String, T> members) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one member");
+        }
+        this.members = new LinkedHashMap<>(members);
+        for (Map.Entry<String, T> member : members.entrySet()) {
+            for (int i = 0; i < POINTS_PER_MEMBER; i++) {
+                ring.put(hash(member.getKey() + "#" + i), member.getValue());
+            }
+        }
+    }
+
+    /** The member that owns {@code name}. */
+    public T owner(String name) {
+        Map.Entry<Long, T> point = ring.ceilingEntry(hash(name));
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+
+    public Collection<T> members() {
+        return members.values();
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, then the MurmurHash3 finalizer so similar names spread out
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,10 @@
+import java.io.IOException;
+
+/**
+ * A source of {@code \n}-terminated UTF-8 lines that can hand out a whole line at once,
+ * instead of being read one byte per call.
+ */
+public interface LineInput {
+    /** The next line without its line terminator, or {@code null} at end of stream. */
+    String readLine() throws IOException;
+}
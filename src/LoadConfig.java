@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options for {@link LoadGenerator}: the server address and port, followed by optional
+ * {@code --key=value} flags. Mixes and size distributions are weighted lists such as
+ * {@code list:10,download:60} and {@code 4k:70,1m:30}.
+ */
+public class LoadConfig {
+    public final String host;
+    public final int port;
+    /** Simulated clients per step; several values run one step each, to find where throughput stops growing. */
+    public final List<Integer> clients;
+    public final int durationSeconds;
+    /** Seconds at the start of each step whose operations are not counted. */
+    public final int warmupSeconds;
+    /** Relative weight of each operation. */
+    public final Map<String, Integer> mix;
+    /** Relative weight of each upload size in bytes; also used for the seeded files. */
+    public final Map<Long, Integer> sizes;
+    /** Files uploaded before the first step for downloads to read. */
+    public final int files;
+    public final String protocol;
+    /** File to append one CSV row per step and operation to, or {@code null}. */
+    public final String csv;
+    public final long seed;
+
+    private LoadConfig(String host, int port, Map<String, String> options) {
+        this.host = host;
+        this.port = port;
+        this.clients = new ArrayList<>();
+        for (String count : options.getOrDefault("clients", "8").split(",")) {
+            clients.add(Integer.parseInt(count.trim()));
+        }
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "10"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        this.mix = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : weights(options.getOrDefault("mix", "list:10,download:60,upload:20,rename:5,delete:5")).entrySet()) {
+            if (!LoadGenerator.OPERATIONS.contains(entry.getKey())) {
+                throw new IllegalArgumentException("Unknown operation in mix: " + entry.getKey());
+            }
+            mix.put(entry.getKey(), entry.getValue());
+        }
+        this.sizes = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : weights(options.getOrDefault("sizes", "4k:60,64k:30,1m:9,16m:1")).entrySet()) {
+            sizes.put(parseSize(entry.getKey()), entry.getValue());
+        }
+        this.files = Integer.parseInt(options.getOrDefault("files", "50"));
+        this.protocol = options.getOrDefault("protocol", "text");
+        if (!protocol.equals(Frames.PROTOCOL) && !protocol.equals("text")) {
+            throw new IllegalArgumentException("protocol must be 'framed' or 'text', got: " + protocol);
+        }
+        this.csv = options.get("csv");
+        this.seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        if (clients.stream().anyMatch(n -> n < 1) || durationSeconds < 1 || warmupSeconds < 0 || files < 1) {
+            throw new IllegalArgumentException("clients, duration and files must be at least 1");
+        }
+    }
+
+    // "a:1,b:2" in the order given
+    private static Map<String, Integer> weights(String spec) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":", 2);
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1]) : 1;
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in " + spec);
+            }
+            weights.put(kv[0], weight);
+        }
+        return weights;
+    }
+
+    /** Bytes from a size such as {@code 512}, {@code 4k}, {@code 1m} or {@code 2g}. */
+    static long parseSize(String size) {
+        String lower = size.trim().toLowerCase();
+        long unit = switch (lower.isEmpty() ? ' ' : lower.charAt(lower.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        return Long.parseLong(unit == 1 ? lower : lower.substring(0, lower.length() - 1)) * unit;
+    }
+
+    /** Returns {@code null} when the address and port are missing. */
+    public static LoadConfig parse(String[] args) {
+        if (args.length < 2) {
+            return null;
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                String[] kv = args[i].substring(2).split("=", 2);
+                options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+            }
+        }
+        return new LoadConfig(args[0], Integer.parseInt(args[1]), options);
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Puts load on a running {@link Server} over the real protocol:
+ * <pre>
+ *   java LoadGenerator localhost 3002 --clients=1,4,16,64 --duration=20
+ *        --mix=list:10,download:60,upload:20,rename:5,delete:5 --sizes=4k:70,1m:29,64m:1
+ * </pre>
+ * It first uploads {@code --files} generated files to download. Then, for each client
+ * count, that many simulated clients on virtual threads run operations picked from the mix
+ * back to back for {@code --duration} seconds, and the step reports operations per second,
+ * MB/s and p50/p99/max latency per operation. Rising client counts show where the server
+ * saturates: throughput stops growing while latency keeps climbing.
+ * <p>
+ * Uploads use names starting with {@code load-}, and everything the run created is
+ * deleted at the end.
+ */
+public class LoadGenerator {
+    static final List<String> OPERATIONS = List.of("list", "download", "upload", "rename", "delete");
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final LoadConfig config;
+    // Uploads are cut from this block, so any size can be sent without holding it in memory
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final List<String> seeded = new ArrayList<>();
+    private final long[] sizeTable;
+    private final String[] operationTable;
+
+    /** Counters for one operation during one step. */
+    private static class OperationStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    private LoadGenerator(LoadConfig config) {
+        this.config = config;
+        new Random(config.seed).nextBytes(block);
+        this.sizeTable = expand(config.sizes).stream().mapToLong(Long::longValue).toArray();
+        this.operationTable = expand(config.mix).toArray(new String[0]);
+    }
+
+    public static void main(String[] args) {
+        LoadConfig config = LoadConfig.parse(args);
+        if (config == null) {
+            System.out.println("Usage: LoadGenerator <host> <port> [--clients=1,4,16] [--duration=10] [--warmup=2]"
+                    + " [--mix=list:10,download:60,upload:20,rename:5,delete:5] [--sizes=4k:60,64k:30,1m:9,16m:1]"
+                    + " [--files=50] [--protocol=text|framed] [--csv=results.csv] [--seed=1]");
+            return;
+        }
+        try {
+            new LoadGenerator(config).run();
+        } catch (IOException e) {
+            System.err.println("Load run failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // A weighted choice becomes a table with one slot per unit of weight.
+    private static <T> List<T> expand(Map<T, Integer> weights) {
+        List<T> table = new ArrayList<>();
+        for (Map.Entry<T, Integer> entry : weights.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                table.add(entry.getKey());
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Every weight is zero");
+        }
+        return table;
+    }
+
+    private void run() throws IOException {
+        Random random = new Random(config.seed);
+        try (ServerConnection connection = open()) {
+            long bytes = 0;
+            for (int i = 0; i < config.files; i++) {
+                String name = "load-seed-" + i + ".bin";
+                long size = sizeTable[random.nextInt(sizeTable.length)];
+                expectOk(upload(connection, name, size));
+                seeded.add(name);
+                bytes += size;
+            }
+            System.out.printf("Seeded %d files (%d bytes)%n", seeded.size(), bytes);
+        }
+        try {
+            for (int clients : config.clients) {
+                runStep(clients);
+            }
+        } finally {
+            try (ServerConnection connection = open()) {
+                for (String name : seeded) {
+                    connection.send("delete", name);
+                    connection.readLine();
+                }
+            }
+        }
+    }
+
+    private void runStep(int clients) throws IOException {
+        Map<String, OperationStats> stats = new LinkedHashMap<>();
+        for (String operation : OPERATIONS) {
+            stats.put(operation, new OperationStats());
+        }
+        long start = System.nanoTime();
+        long measureFrom = start + config.warmupSeconds * 1_000_000_000L;
+        long end = measureFrom + config.durationSeconds * 1_000_000_000L;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                int id = i;
+                executor.execute(() -> simulateClient(clients + "-" + id, new Random(config.seed * 31 + id), stats, measureFrom, end));
+            }
+        }
+        report(clients, stats);
+    }
+
+    /** One client: its own connection, running picked operations until the step ends. */
+    private void simulateClient(String id, Random random, Map<String, OperationStats> stats, long measureFrom, long end) {
+        List<String> owned = new ArrayList<>();
+        int uploads = 0;
+        ServerConnection connection = null;
+        try {
+            while (System.nanoTime() < end) {
+                if (connection == null) {
+                    connection = open();
+                }
+                String operation = operationTable[random.nextInt(operationTable.length)];
+                if ((operation.equals("rename") || operation.equals("delete")) && owned.isEmpty()) {
+                    // Only files this client uploaded are renamed or deleted, so clients never collide
+                    operation = "upload";
+                }
+                long started = System.nanoTime();
+                long bytes = 0;
+                String reply;
+                try {
+                    switch (operation) {
+                        case "list" -> reply = list(connection);
+                        case "download" -> {
+                            String name = seeded.get(random.nextInt(seeded.size()));
+                            bytes = download(connection, name);
+                            reply = bytes >= 0 ? "OK" : "ERROR";
+                        }
+                        case "upload" -> {
+                            String name = "load-" + id + "-" + uploads++ + ".bin";
+                            bytes = sizeTable[random.nextInt(sizeTable.length)];
+                            reply = upload(connection, name, bytes);
+                            if (reply.startsWith("OK")) {
+                                owned.add(name);
+                            }
+                        }
+                        case "rename" -> {
+                            int index = random.nextInt(owned.size());
+                            String newName = "load-" + id + "-" + uploads++ + ".bin";
+                            connection.send("rename", owned.get(index) + "?" + newName);
+                            reply = readReply(connection);
+                            if (reply.startsWith("OK")) {
+                                owned.set(index, newName);
+                            }
+                        }
+                        default -> {
+                            String name = owned.remove(random.nextInt(owned.size()));
+                            connection.send("delete", name);
+                            reply = readReply(connection);
+                        }
+                    }
+                } catch (IOException e) {
+                    // Count it and start over on a fresh connection
+                    reply = "ERROR: " + e.getMessage();
+                    closeQuietly(connection);
+                    connection = null;
+                }
+                long finished = System.nanoTime();
+                if (started >= measureFrom && finished <= end) {
+                    OperationStats operationStats = stats.get(operation);
+                    operationStats.latency.record((finished - started) / 1000);
+                    if (reply.startsWith("OK")) {
+                        operationStats.bytes.add(Math.max(bytes, 0));
+                    } else {
+                        operationStats.errors.increment();
+                    }
+                }
+            }
+            if (connection == null) {
+                connection = open();
+            }
+            for (String name : owned) {
+                connection.send("delete", name);
+                connection.readLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Client " + id + " stopped: " + e.getMessage());
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    private ServerConnection open() throws IOException {
+        ServerConnection connection = ServerConnection.open(config.host, config.port);
+        if (config.protocol.equals(Frames.PROTOCOL)) {
+            connection.useFrames();
+        }
+        return connection;
+    }
+
+    private static String list(ServerConnection connection) throws IOException {
+        connection.send("list", null);
+        String header = readReply(connection);
+        if (header.startsWith("ERROR")) {
+            return header;
+        }
+        int count = Integer.parseInt(header.trim());
+        for (int i = 0; i < count; i++) {
+            connection.readLine();
+        }
+        return "OK";
+    }
+
+    // Returns the bytes read, or -1 if the server refused
+    private long download(ServerConnection connection, String name) throws IOException {
+        connection.send("download", name);
+        String header = readReply(connection);
+        if (!header.startsWith("OK?")) {
+            return -1;
+        }
+        long size = Long.parseLong(header.substring(3));
+        InputStream in = connection.input();
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = size;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new IOException("Connection closed with " + remaining + " bytes of " + name + " to go");
+            }
+            remaining -= n;
+        }
+        return size;
+    }
+
+    private String upload(ServerConnection connection, String name, long size) throws IOException {
+        connection.send("upload", name + "?" + size);
+        OutputStream out = connection.output();
+        for (long sent = 0; sent < size; ) {
+            int n = (int) Math.min(block.length, size - sent);
+            out.write(block, 0, n);
+            sent += n;
+        }
+        out.flush();
+        return readReply(connection);
+    }
+
+    private static String readReply(ServerConnection connection) throws IOException {
+        String reply = connection.readLine();
+        if (reply == null) {
+            throw new IOException("Connection closed by server");
+        }
+        return reply;
+    }
+
+    private static void expectOk(String reply) throws IOException {
+        if (!reply.startsWith("OK")) {
+            throw new IOException(reply);
+        }
+    }
+
+    private void report(int clients, Map<String, OperationStats> stats) throws IOException {
+        double seconds = config.durationSeconds;
+        long total = 0;
+        for (OperationStats operationStats : stats.values()) {
+            total += operationStats.latency.count();
+        }
+        System.out.printf("%nclients=%d  %.1f ops/s over %ds%n", clients, total / seconds, config.durationSeconds);
+        System.out.printf("  %-10s %9s %7s %10s %9s %9s %9s %9s%n", "operation", "ops", "errors", "ops/s", "MB/s", "p50 ms", "p99 ms", "max ms");
+        StringBuilder rows = new StringBuilder();
+        for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            OperationStats operationStats = entry.getValue();
+            long count = operationStats.latency.count();
+            if (count == 0) {
+                continue;
+            }
+            LatencyHistogram latency = operationStats.latency;
+            System.out.printf("  %-10s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), count,
+                    operationStats.errors.sum(), count / seconds, operationStats.bytes.sum() / seconds / (1024 * 1024),
+                    latency.percentile(0.50) / 1000.0, latency.percentile(0.99) / 1000.0, latency.max() / 1000.0);
+            rows.append(clients).append(',').append(entry.getKey()).append(',').append(count).append(',')
+                    .append(operationStats.errors.sum()).append(',').append(String.format("%.1f", count / seconds)).append(',')
+                    .append(operationStats.bytes.sum()).append(',').append(latency.percentile(0.50)).append(',')
+                    .append(latency.percentile(0.99)).append(',').append(latency.max()).append('\n');
+        }
+        if (config.csv != null) {
+            boolean fresh = !new File(config.csv).exists();
+            try (Writer out = new FileWriter(config.csv, true)) {
+                if (fresh) {
+                    out.write("clients,operation,ops,errors,ops_per_second,bytes,p50_us,p99_us,max_us\n");
+                }
+                out.write(rows.toString());
+            }
+        }
+    }
+
+    private static void closeQuietly(ServerConnection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-request console logging for the server. In the default {@code async} mode a line is
+ * only queued and a background thread prints it, so a request never waits on the
+ * console; when the queue is full lines are dropped and counted instead of blocking.
+ * {@code sync} prints directly and {@code off} discards everything.
+ */
+public class Log {
+    private static final int QUEUE_SIZE = 16 * 1024;
+
+    private static volatile String mode = "async";
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final LongAdder dropped = new LongAdder();
+    private static Thread writer;
+
+    private Log() {
+    }
+
+    /** Sets the mode, {@code async}, {@code sync} or {@code off}; call once at startup. */
+    static void configure(String newMode) {
+        mode = newMode;
+        if (newMode.equals("async") && writer == null) {
+            writer = Thread.ofPlatform().name("log-writer").daemon(true).start(Log::drain);
+        }
+    }
+
+    static void info(String line) {
+        switch (mode) {
+            case "async" -> {
+                if (!queue.offer(line)) {
+                    dropped.increment();
+                }
+            }
+            case "sync" -> System.out.println(line);
+            default -> {
+            }
+        }
+    }
+
+    /** Lines lost because the queue was full. */
+    static long dropped() {
+        return dropped.sum();
+    }
+
+    // Prints whatever has queued up as one write, so a burst costs one console call.
+    private static void drain() {
+        List<String> batch = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        long reported = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            for (String line : batch) {
+                text.append(line).append(System.lineSeparator());
+            }
+            long lost = dropped.sum();
+            if (lost > reported) {
+                text.append("(").append(lost - reported).append(" log lines dropped)").append(System.lineSeparator());
+                reported = lost;
+            }
+            System.out.print(text);
+            System.out.flush();
+            batch.clear();
+            text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking server engine. One acceptor hands connections round-robin to a small pool
+ * of selector event loops that only move bytes. A connection holds no thread while it is
+ * idle; once a complete {@code command?args} line has arrived, the command runs on a
+ * virtual thread through the same handlers the blocking engine uses.
+ */
+public class NioServer {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Stop reading from a client once this much unconsumed input (e.g. an upload) is queued
+    private static final int INPUT_HIGH_WATER = 1024 * 1024;
+    // Block a handler once this much reply data is waiting to be written to its client
+    private static final int OUTPUT_HIGH_WATER = 1024 * 1024;
+
+    private final ServerConfig config;
+    private final EventLoop[] loops;
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+    public NioServer(ServerConfig config) {
+        this.config = config;
+        this.loops = new EventLoop[config.eventLoops];
+    }
+
+    public void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            Thread.ofPlatform().name("nio-loop-" + i).daemon(true).start(loops[i]);
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             Selector acceptSelector = Selector.open()) {
+            serverChannel.bind(new InetSocketAddress(config.port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            System.out.printf("NIO server is running on port %d with %d event loops%n", config.port, loops.length);
+
+            int next = 0;
+            while (true) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    if (ServerMetrics.activeConnections.get() >= config.maxConnections) {
+                        // Over the limit: turn the client away instead of parking it on an event loop
+                        channel.close();
+                        Log.info("Connection refused, limit of " + config.maxConnections + " reached");
+                        continue;
+                    }
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    ServerMetrics.activeConnections.incrementAndGet();
+                    Log.info("Client connected: " + channel.getRemoteAddress());
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                }
+            }
+        }
+    }
+
+    /** A selector thread that owns a set of connections and performs all of their socket I/O. */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new NioSession(this, channel, key));
+                } catch (ClosedChannelException e) {
+                    ServerMetrics.activeConnections.decrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioSession session = (NioSession) key.attachment();
+                        if (session == null || !key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                session.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                session.onWritable();
+                            }
+                        } catch (IOException e) {
+                            session.terminate();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Session state for one non-blocking connection. Incoming bytes are parked in a
+     * {@link BytePipe} that the running handler reads from; replies are cut into direct
+     * buffers and queued for the event loop to write.
+     */
+    private class NioSession implements Session {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final String remote;
+        private final BytePipe inbound = new BytePipe(8 * 1024, INPUT_HIGH_WATER);
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+        private final OutputStream out = new SessionOutputStream();
+        // A lock rather than a monitor: handlers wait on it from virtual threads
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition writable = lock.newCondition();
+        private int pendingOutput;
+        private boolean busy;
+        private volatile boolean closing;
+        private volatile boolean closed;
+
+        NioSession(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.remote = String.valueOf(channel.socket().getInetAddress());
+            // Resume reading once the handler has consumed a backlog that made us pause
+            inbound.onDrained(() -> loop.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            }));
+        }
+
+        void onReadable(ByteBuffer readBuffer) throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n == -1) {
+                inbound.closeWrite();
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                lock.lock();
+                try {
+                    if (!busy && !inbound.hasLine()) {
+                        terminate();
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } else if (n > 0) {
+                readBuffer.flip();
+                inbound.write(readBuffer);
+                if (inbound.isFull()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            }
+            maybeDispatch();
+        }
+
+        private void maybeDispatch() {
+            lock.lock();
+            try {
+                if (busy || closed || !inbound.hasLine()) {
+                    return;
+                }
+                busy = true;
+            } finally {
+                lock.unlock();
+            }
+            workers.execute(this::runCommands);
+        }
+
+        // Runs on a virtual thread: drains every complete command line, then goes idle again.
+        private void runCommands() {
+            try {
+                while (isOpen()) {
+                    lock.lock();
+                    try {
+                        if (!inbound.hasLine()) {
+                            busy = false;
+                            if (inbound.isFinished()) {
+                                close();
+                            }
+                            return;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    String line = Server.readLine(inbound.inputStream());
+                    if (line == null) {
+                        break;
+                    }
+                    Server.dispatch(line, this);
+                }
+            } catch (Exception e) {
+                System.err.println("Session error for " + remote + ": " + e.getMessage());
+            }
+            lock.lock();
+            try {
+                busy = false;
+            } finally {
+                lock.unlock();
+            }
+            close();
+        }
+
+        void onWritable() throws IOException {
+            lock.lock();
+            try {
+                while (!outbound.isEmpty()) {
+                    ByteBuffer head = outbound.peek();
+                    int written = channel.write(head);
+                    pendingOutput -= written;
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    outbound.poll();
+                    head.clear();
+                    freeBuffers.push(head);
+                }
+                writable.signalAll();
+                if (outbound.isEmpty()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    if (closing) {
+                        terminate();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void enqueue(ByteBuffer buffer) throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                buffer.flip();
+                pendingOutput += buffer.remaining();
+                outbound.add(buffer);
+                loop.execute(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                });
+                while (pendingOutput > OUTPUT_HIGH_WATER && !closed) {
+                    try {
+                        writable.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting to write");
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ByteBuffer obtainBuffer() {
+            lock.lock();
+            try {
+                ByteBuffer buffer = freeBuffers.poll();
+                return buffer != null ? buffer : ByteBuffer.allocateDirect(CHUNK_SIZE);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public InputStream input() {
+            return inbound.inputStream();
+        }
+
+        @Override
+        public OutputStream output() {
+            return out;
+        }
+
+        @Override
+        public String remoteAddress() {
+            return remote;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closing && !closed;
+        }
+
+        // Flushes whatever the handler already wrote before the channel is closed.
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (closing || closed) {
+                    return;
+                }
+                closing = true;
+            } finally {
+                lock.unlock();
+            }
+            loop.execute(() -> {
+                lock.lock();
+                try {
+                    if (outbound.isEmpty()) {
+                        terminate();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            });
+        }
+
+        void terminate() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                closing = true;
+                writable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            inbound.closeWrite();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            Server.scheduler.disconnected(this);
+            Log.info("Client disconnected. Active sessions: " + ServerMetrics.activeConnections.decrementAndGet());
+        }
+
+        /** Fills direct buffers and hands each full one to the event loop. */
+        private class SessionOutputStream extends OutputStream {
+            private ByteBuffer current;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (current == null) {
+                        current = obtainBuffer();
+                    }
+                    int n = Math.min(len, current.remaining());
+                    current.put(b, off, n);
+                    off += n;
+                    len -= n;
+                    if (!current.hasRemaining()) {
+                        flush();
+                    }
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (current != null && current.position() > 0) {
+                    ByteBuffer full = current;
+                    current = null;
+                    enqueue(full);
+                }
+            }
+        }
+    }
+}
@@ -1,47 +1,201 @@
 import java.io.*;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 public class Server {
-    private static BufferedInputStream clientIn;
+    static final String PART_SUFFIX = ".part";
+    // Uploads writing a name.part right now, by name; see claimUpload
+    private static final Map<String, UploadClaim> uploads = new ConcurrentHashMap<>();
+
+    private record UploadClaim(Session owner, boolean ranged) {
+    }
+
+    // Content-addressed store for deduplicated files; null unless started with --dedup
+    static ChunkStore chunkStore;
+    // The root directories files are spread over; a single ServerFiles unless started with --roots
+    static Storage storage;
+    // This node's id and the ring of every node when started with --cluster; the ring is null on a lone server
+    static String node;
+    static HashRing<String> cluster;
+    // In-memory listing of the storage roots, kept current by a WatchService
+    static DirectoryIndex listing;
+    // Hot files held in memory for downloads; null unless started with --cache-size
+    static FileCache fileCache;
+    // Lanes and rate limits for transfers; unlimited until main applies the configuration
+    static TransferScheduler scheduler = new TransferScheduler(0, 0, 0, 0);
+    private static final Map<String, BiConsumer<String, Session>> COMMAND_HANDLERS = initializeCommandHandlers();
 
     public static void main(String[] args) {
-        int port = 3002;
+        ServerConfig config = ServerConfig.parse(args);
+        Transfers.configure(config.bufferSize, config.zeroCopy);
+        Log.configure(config.log);
+        ServerMetrics.startSampler(config.metricsInterval, config.metricsFile);
+        scheduler = new TransferScheduler(config.rateLimit, config.connectionRateLimit, config.bulkTransfers, config.prioritySize);
+        try {
+            storage = new Storage(config.roots.stream().map(Path::of).toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        node = config.node;
+        if (!config.cluster.isEmpty()) {
+            cluster = new HashRing<>(config.cluster.stream()
+                    .collect(Collectors.toMap(id -> id, id -> id, (a, b) -> a, LinkedHashMap::new)));
+            if (!config.cluster.contains(node)) {
+                System.out.println("--node " + node + " is not one of the --cluster nodes " + config.cluster);
+                return;
+            }
+        }
+        if (config.dedup) {
+            try {
+                chunkStore = new ChunkStore(storage.primary().toFile());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        try {
+            listing = new DirectoryIndex(storage, chunkStore);
+            listing.start();
+            System.out.println("Indexed " + listing.size() + " files");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (config.cacheSize > 0) {
+            fileCache = new FileCache(listing, config.cacheSize, config.cacheMapThreshold);
+        }
+        if (config.engine.equals("nio")) {
+            try {
+                new NioServer(config).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        int port = config.port;
+        Semaphore connectionSlots = new Semaphore(config.maxConnections);
 
-        System.out.printf("Echo server is running on port %d%n", port);
-        try(ServerSocket my_socket = new ServerSocket(port)) {
+        System.out.printf("Echo server is running on port %d (max %d connections)%n", port, config.maxConnections);
+        // Accept through a channel so every client socket has one for zero-copy transfers
+        try(ServerSocketChannel my_socket = ServerSocketChannel.open().bind(new InetSocketAddress(port))) {
             while (true) {
-                System.out.println("Waiting for a client...");
-                Socket clientSocket = my_socket.accept();
-                System.out.println("Client connected: " + clientSocket.getInetAddress());
-                clientIn = new BufferedInputStream(clientSocket.getInputStream());
-
-                String line;
-                while ((line = readLine(clientIn)) != null){
-                    System.out.println("Client cmd: " + line);
-                    Map<String, BiConsumer<String, Socket>> handlers = initializeCommandHandlers();
-                    String[] cmdParts = line.split("\\?", 2);
-                    String command = cmdParts[0];
-                    String argsString = cmdParts.length > 1 ? cmdParts[1] : "";
-                    BiConsumer<String, Socket> handler= handlers.get(command);
-                    if (handler == null) {
-                        System.out.println("Unknown command: " + command);
-                    }else {
-                        handler.accept(argsString, clientSocket);
-                    }
+                // Block here instead of accepting, so extra clients wait in the backlog
+                connectionSlots.acquire();
+                Socket clientSocket;
+                try {
+                    clientSocket = my_socket.accept().socket();
+                } catch (IOException e) {
+                    connectionSlots.release();
+                    throw e;
                 }
-
-                clientSocket.close();
-                System.out.println("Client disconnected.");
+                Log.info("Client connected: " + clientSocket.getInetAddress());
+                Thread.ofVirtual().name("client-" + clientSocket.getPort()).start(() -> {
+                    try {
+                        serveClient(clientSocket);
+                    } finally {
+                        connectionSlots.release();
+                    }
+                });
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private static String readLine(InputStream in) throws IOException {
+    private static void serveClient(Socket clientSocket) {
+        ServerMetrics.activeConnections.incrementAndGet();
+        ClientSession session = null;
+        try {
+            session = new ClientSession(clientSocket);
+            String line;
+            while (session.isOpen() && (line = readLine(session.input())) != null){
+                dispatch(line, session);
+            }
+        } catch (Exception e) {
+            // A failing session must not take the other clients down with it
+            System.err.println("Session error for " + clientSocket.getInetAddress() + ": " + e.getMessage());
+        } finally {
+            if (session != null) {
+                session.close();
+                scheduler.disconnected(session);
+            } else {
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            Log.info("Client disconnected. Active sessions: " + ServerMetrics.activeConnections.decrementAndGet());
+        }
+    }
+
+    // Shared by both engines: runs one command line against its handler.
+    static void dispatch(String line, Session session) {
+        Log.info("Client cmd: " + line);
+        int separator = line.indexOf('?');
+        String command = separator < 0 ? line : line.substring(0, separator);
+        String argsString = separator < 0 ? "" : line.substring(separator + 1);
+        if (!COMMAND_HANDLERS.containsKey(command)) {
+            Log.info("Unknown command: " + command);
+            try {
+                session.output().write(("ERROR: Unknown command " + command + "\n").getBytes(StandardCharsets.UTF_8));
+                session.output().flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        execute(command, argsString, session);
+    }
+
+    // Runs a command that is already split from its arguments, as framed requests arrive.
+    static void execute(String command, String argsString, Session session) {
+        BiConsumer<String, Session> handler = COMMAND_HANDLERS.get(command);
+        if (command.equals("protocol")) {
+            // Its handler goes on to serve the whole connection as frames, so it is not timed
+            handler.accept(argsString, session);
+            return;
+        }
+        ServerMetrics.Call call = ServerMetrics.start(command, session);
+        // Admitted inside the call, so time spent queued for a bulk slot shows in its latency
+        TransferScheduler.Admission admission = scheduler.admit(command, argsString, session);
+        try {
+            handler.accept(argsString, call.session());
+        } catch (RuntimeException e) {
+            call.fail();
+            throw e;
+        } finally {
+            admission.end();
+            call.end();
+        }
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        if (in instanceof LineInput lines) {
+            return lines.readLine();
+        }
         StringBuilder sb = new StringBuilder();
         int b;
         while ((b = in.read()) != -1) {
@@ -51,102 +205,176 @@ public class Server {
         return !sb.isEmpty() ? sb.toString() : null;
     }
 
-    private static Map<String, BiConsumer<String, Socket>> initializeCommandHandlers() {
-        Map<String, BiConsumer<String, Socket>> handlers = new java.util.HashMap<>();
+    private static Map<String, BiConsumer<String, Session>> initializeCommandHandlers() {
+        Map<String, BiConsumer<String, Session>> handlers = new java.util.HashMap<>();
         handlers.put("list", Server::handleListCommand);
         handlers.put("delete", Server::handleDeleteCommand);
         handlers.put("rename", Server::handleRenameCommand);
         handlers.put("download", Server::handleDownloadCommand);
         handlers.put("upload", Server::handleUploadCommand);
+        handlers.put("uploadstatus", Server::handleUploadStatusCommand);
+        handlers.put("uploadbegin", Server::handleUploadBeginCommand);
+        handlers.put("uploadcommit", Server::handleUploadCommitCommand);
+        handlers.put("codecs", Server::handleCodecsCommand);
+        handlers.put("chunkcheck", Server::handleChunkCheckCommand);
+        handlers.put("chunkput", Server::handleChunkPutCommand);
+        handlers.put("chunkcommit", Server::handleChunkCommitCommand);
+        handlers.put("deltasig", Server::handleDeltaSigCommand);
+        handlers.put("deltaput", Server::handleDeltaPutCommand);
+        handlers.put("checksum", Server::handleChecksumCommand);
+        handlers.put("touch", Server::handleTouchCommand);
+        handlers.put("nodes", Server::handleNodesCommand);
+        handlers.put("mget", Server::handleMgetCommand);
+        handlers.put("mput", Server::handleMputCommand);
+        handlers.put("mdelete", Server::handleMdeleteCommand);
+        handlers.put("mrename", Server::handleMrenameCommand);
+        handlers.put("cachestats", Server::handleCacheStatsCommand);
+        handlers.put("stats", Server::handleStatsCommand);
+        handlers.put("protocol", Server::handleProtocolCommand);
         handlers.put("quit", Server::handleQuitCommand);
-        return handlers;
+        return Map.copyOf(handlers);
     }
 
-    private static void handleDeleteCommand(String s, Socket socket) {
-        System.out.println("Deleting file with args: " + s);
+    // protocol?framed?<version>: replies OK?framed?<agreed version>, then the connection speaks Frames.
+    private static void handleProtocolCommand(String s, Session session) {
         try {
-            String fileName = s.trim();
-            OutputStream outputStream = socket.getOutputStream();
-            File myFolder = new File("ServerFiles");
-            File fileToDelete = new File(myFolder, fileName);
-            if (!fileToDelete.exists()) {
-                outputStream.write(("ERROR: File not found: " + fileName + "\n").getBytes());
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parse(s);
+            long version = args.count() == 2 && args.get(0).equals(Frames.PROTOCOL) ? args.getLong(1, 0) : 0;
+            if (version < 1) {
+                outputStream.write(("ERROR: Unsupported protocol " + s + "\n").getBytes());
                 outputStream.flush();
                 return;
             }
-            boolean success = fileToDelete.delete();
-            if (success) {
-                outputStream.write(("OK: File deleted: " + fileName + "\n").getBytes());
-            } else {
-                outputStream.write(("ERROR: Failed to delete file: " + fileName + "\n").getBytes());
-            }
+            outputStream.write(("OK?" + Frames.PROTOCOL + "?" + Math.min(version, Frames.VERSION) + "\n").getBytes());
             outputStream.flush();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        FrameServer.serve(session);
     }
 
-    private static void handleRenameCommand(String s, Socket socket) {
-        System.out.println("Renaming file with args: " + s);
+    private static void handleDeleteCommand(String s, Session session) {
+        Log.info("Deleting file with args: " + s);
+        try {
+            OutputStream outputStream = session.output();
+            outputStream.write((deleteFile(s.trim()) + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Deletes one file, plain or stored, and returns the reply line for it.
+    private static String deleteFile(String fileName) throws IOException {
+        File fileToDelete = storage.file(fileName);
+        if (!fileToDelete.exists() && chunkStore != null && chunkStore.exists(fileName)) {
+            boolean success = chunkStore.delete(fileName);
+            fileChanged(fileName);
+            return (success ? "OK: File deleted: " : "ERROR: Failed to delete file: ") + fileName;
+        }
+        if (!fileToDelete.exists()) {
+            return "ERROR: File not found: " + fileName;
+        }
+        boolean success = fileToDelete.delete();
+        fileChanged(fileName);
+        if (success) {
+            return "OK: File deleted: " + fileName;
+        } else {
+            return "ERROR: Failed to delete file: " + fileName;
+        }
+    }
+
+    private static void handleRenameCommand(String s, Session session) {
+        Log.info("Renaming file with args: " + s);
        try {
-            OutputStream outputStream = socket.getOutputStream();
+            OutputStream outputStream = session.output();
            String [] parts = s.split("\\?");
            if (parts.length != 2) {
                outputStream.write("ERROR: rename command requires exactly 2 arguments: oldname and newname\n".getBytes());
                outputStream.flush();
                return;
            }
-           String oldName = parts[0];
-           String newName = parts[1];
-           File myFolder = new File("ServerFiles");
-           File oldFile = new File(myFolder, oldName);
-          if (!oldFile.exists()) {
-                outputStream.write(("ERROR: File not found: " + oldName + "\n").getBytes());
-                outputStream.flush();
-                return;
-          }
-          File newFile = new File(myFolder, newName);
-            if (newFile.exists()) {
-                outputStream.write(("ERROR: A file with the new name already exists: " + newName + "\n").getBytes());
-                outputStream.flush();
-                return;
-            }
-            boolean success = oldFile.renameTo(newFile);
-            if (success) {
-                outputStream.write(("OK: File renamed from " + oldName + " to " + newName + "\n").getBytes());
-            } else {
-                outputStream.write(("ERROR: Failed to rename file " + oldName + " to " + newName + "\n").getBytes());
-            }
-            outputStream.flush();
+           outputStream.write((renameFile(parts[0], parts[1]) + "\n").getBytes());
+           outputStream.flush();
        }catch (IOException e) {
            throw new RuntimeException(e);
        }
     }
 
-    private static void handleListCommand(String s, Socket socket) {
-        System.out.println("sending files");
+    // Renames one file, plain or stored, and returns the reply line for it.
+    private static String renameFile(String oldName, String newName) throws IOException {
+        File oldFile = storage.file(oldName);
+        boolean stored = !oldFile.exists() && chunkStore != null && chunkStore.exists(oldName);
+        if (!oldFile.exists() && !stored) {
+            return "ERROR: File not found: " + oldName;
+        }
+        String refused = cannotStore(newName);
+        if (refused != null) {
+            return refused;
+        }
+        File newFile = storage.file(newName);
+        if (newFile.exists() || (chunkStore != null && chunkStore.exists(newName))) {
+            return "ERROR: A file with the new name already exists: " + newName;
+        }
+        boolean success = stored ? chunkStore.rename(oldName, newName) : move(oldFile, newFile);
+        fileChanged(oldName);
+        fileChanged(newName);
+        if (success) {
+            return "OK: File renamed from " + oldName + " to " + newName;
+        } else {
+            return "ERROR: Failed to rename file " + oldName + " to " + newName;
+        }
+    }
+
+    // A rename within one root is atomic; between roots on different disks it is a copy and delete.
+    private static boolean move(File from, File to) {
         try {
-            OutputStream outputStream = socket.getOutputStream();
-            File folder = new File("ServerFiles");
-            File[] files = folder.listFiles();
+            Files.move(from.toPath(), to.toPath());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-            if (files == null || files.length == 0) {
-                outputStream.write("0\n".getBytes());
+    // Plain "list" keeps its old reply: a count, then one name per line. Any option
+    // (prefix=, sort=name|size|mtime, order=desc, offset=, limit=, hash=true) switches to
+    // OK?<returned>?<total> followed by name?size?mtime[?sha256] lines.
+    private static void handleListCommand(String s, Session session) {
+        Log.info("sending files");
+        try {
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parseOptions(s);
+            DirectoryIndex.Page page;
+            try {
+                page = listing.query(args.option("prefix"), args.option("sort"), "desc".equals(args.option("order")),
+                        Integer.parseInt(Objects.requireNonNullElse(args.option("offset"), "0")),
+                        Integer.parseInt(Objects.requireNonNullElse(args.option("limit"), "0")));
+            } catch (IllegalArgumentException e) {
+                outputStream.write(("ERROR: " + e.getMessage() + "\n").getBytes());
                 outputStream.flush();
                 return;
             }
-            // Send count first, so the client knows how many filenames to expect
-            outputStream.write((files.length + "\n").getBytes());
 
-            // Send each filename
+            // Collect the names first so the count matches what is actually sent
             StringBuilder fileList = new StringBuilder();
-            for (File file : files) {
-                if (file.isFile()) {
-                    fileList.append(file.getName()).append("\n");
+            if (!args.hasOptions()) {
+                fileList.append(page.entries().size()).append("\n");
+                for (DirectoryIndex.Entry entry : page.entries()) {
+                    fileList.append(entry.name()).append("\n");
+                }
+            } else {
+                boolean withHash = Boolean.parseBoolean(args.option("hash"));
+                fileList.append("OK?").append(page.entries().size()).append("?").append(page.total()).append("\n");
+                for (DirectoryIndex.Entry entry : page.entries()) {
+                    fileList.append(entry.name()).append("?").append(entry.size()).append("?").append(entry.modified());
+                    if (withHash) {
+                        fileList.append("?").append(listing.hash(entry));
+                    }
+                    fileList.append("\n");
                 }
             }
-
-            outputStream.write(fileList.toString().getBytes());
+            outputStream.write(fileList.toString().getBytes(StandardCharsets.UTF_8));
             outputStream.flush();
 
         } catch (Exception e) {
@@ -154,64 +382,850 @@ public class Server {
         }
     }
 
-    private static void handleUploadCommand(String s, Socket socket) {
-        System.out.println("Uploading file with args: " + s);
+    private static void handleUploadCommand(String s, Session session) {
+        Log.info("Uploading file with args: " + s);
+        try {
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parse(s);
+            if (args.count() < 2 || args.count() > 4) {
+                outputStream.write("ERROR: upload command requires filename and filesize, optionally followed by offset and length\n".getBytes());
+                outputStream.flush();
+                // Any body that follows has no known length, so the connection is unusable
+                session.close();
+                return;
+            }
+            String fileName = args.get(0);
+            long fileSize = args.getLong(1, 0);
+            long offset = args.getLong(2, 0);
+            long length = args.getLong(3, fileSize - offset);
+            // The client only names a codec the server listed in its codecs reply
+            String codecSpec = args.option("codec");
+            Codec codec = Codecs.get(codecSpec == null ? null : codecSpec.split(":", 2)[0]);
+            if (codecSpec != null && codec == null && !codecSpec.equals(Codecs.IDENTITY)) {
+                outputStream.write(("ERROR: Unsupported codec " + codecSpec + "\n").getBytes());
+                outputStream.flush();
+                // The body that follows cannot be parsed, so the connection is unusable
+                session.close();
+                return;
+            }
+            // With verify=<algorithm> the body is followed by a CHECKSUM?algorithm?hex trailer
+            String verify = args.option("verify");
+            StreamChecksum checksum = StreamChecksum.create(verify);
+            if (verify != null && checksum == null) {
+                outputStream.write(("ERROR: Unsupported checksum " + verify + "\n").getBytes());
+                outputStream.flush();
+                session.close();
+                return;
+            }
+            String refused = cannotStore(fileName);
+            if (refused != null) {
+                outputStream.write((refused + "\n").getBytes());
+                outputStream.flush();
+                // The body is already on its way and has nowhere to go
+                session.close();
+                return;
+            }
+            if (offset < 0 || length < 0 || offset + length > fileSize) {
+                outputStream.write(("ERROR: Invalid range " + offset + "+" + length + " for size " + fileSize + "\n").getBytes());
+                outputStream.flush();
+                // The body's length cannot be trusted, so it cannot be skipped either
+                session.close();
+                return;
+            }
+            // An explicit length means one range of a multi-stream upload, which uploadbegin claimed
+            boolean ranged = args.count() == 4;
+            Session owner = session.connection();
+            String busy = ranged ? rangedUploadMissing(fileName) : claimUpload(fileName, owner, false);
+            if (busy != null) {
+                outputStream.write((busy + "\n").getBytes());
+                outputStream.flush();
+                // The body is already on its way and has nowhere to go
+                session.close();
+                return;
+            }
+            try {
+                File newFile = storage.file(fileName);
+                // Bytes land in name.part and only replace the real file once it is complete
+                File partFile = partFileFor(newFile);
+                if (offset > partFile.length()) {
+                    outputStream.write(("ERROR: Cannot resume at " + offset + ", only " + partFile.length() + " bytes were received\n").getBytes());
+                    outputStream.flush();
+                    // The body is already on its way; read as commands it could run anything
+                    session.close();
+                    return;
+                }
+                try (FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    if (offset == 0 && length == fileSize) {
+                        fileChannel.truncate(0);
+                    }
+                    if (codec != null) {
+                        long wireBytes;
+                        try {
+                            wireBytes = Transfers.receiveEncoded(session.input(), fileChannel, offset, length, codec, checksum);
+                        } catch (IOException e) {
+                            outputStream.write(("ERROR: " + e.getMessage() + "\n").getBytes());
+                            outputStream.flush();
+                            // Past a refused or corrupt block the rest of the body cannot be found
+                            session.close();
+                            return;
+                        }
+                        Log.info(String.format("Received %s as %d compressed bytes", fileName, wireBytes));
+                    } else {
+                        Transfers.receive(session.input(), session.channel(), fileChannel, offset, length, checksum);
+                    }
+                    String failure = checksum != null ? checksum.verify(readLine(session.input())) : null;
+                    if (failure != null) {
+                        // Drop the bad range so a resumed upload sends it again
+                        fileChannel.truncate(offset);
+                        outputStream.write(("ERROR: " + failure + "\n").getBytes());
+                        outputStream.flush();
+                        return;
+                    }
+                }
+                Log.info(String.format("Received %d bytes for %s at offset %d", length, fileName, offset));
+                // uploadcommit finishes a multi-stream upload
+                if (!ranged && offset + length == fileSize) {
+                    try (FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)) {
+                        fileChannel.truncate(fileSize);
+                    }
+                    publish(partFile, newFile);
+                    if (checksum != null && offset == 0) {
+                        recordChecksum(fileName, fileSize, checksum);
+                    }
+                    outputStream.write(("OK: File uploaded: " + fileName + "\n").getBytes());
+                } else {
+                    outputStream.write(("OK: Stored " + length + " bytes of " + fileName + " at offset " + offset + "\n").getBytes());
+                }
+                outputStream.flush();
+            } finally {
+                if (!ranged) {
+                    releaseUpload(fileName, owner);
+                }
+            }
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Replies OK?<bytes> with how much of an interrupted upload the server already holds.
+    // uploadstatus?name?<bytes>?resume=<algorithm>:<hex> confirms those bytes came from the
+    // same file the client is sending now, and replies OK?0 if they did not.
+    private static void handleUploadStatusCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parse(s.trim());
+            File partFile = partFileFor(storage.file(args.get(0)));
+            long held = partFile.isFile() ? partFile.length() : 0;
+            String resume = args.option("resume");
+            if (resume != null && held > 0) {
+                long length = args.getLong(1, 0);
+                try (FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.READ)) {
+                    held = length <= held && StreamChecksum.matchesPrefix(resume, fileChannel::read, length) ? length : 0;
+                }
+            }
+            outputStream.write(("OK?" + held + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Claims the name.part of fileName for an upload arriving on connection owner, so two uploads
+    // never write it at once; uploadbegin takes a ranged claim that covers the ranges that follow
+    // on other connections. Null on success, otherwise the reply refusing the upload. A claim
+    // whose connection has closed is abandoned and taken over.
+    private static String claimUpload(String fileName, Session owner, boolean ranged) {
+        UploadClaim claim = new UploadClaim(owner, ranged);
+        UploadClaim held = uploads.compute(fileName, (name, old) -> old == null || !old.owner().isOpen() ? claim : old);
+        return held == claim ? null : "ERROR: " + fileName + " is already being uploaded";
+    }
+
+    private static void releaseUpload(String fileName, Session owner) {
+        uploads.computeIfPresent(fileName, (name, old) -> old.owner() == owner ? null : old);
+    }
+
+    // Null when uploadbegin has claimed fileName for a multi-stream upload, otherwise the error reply.
+    private static String rangedUploadMissing(String fileName) {
+        UploadClaim claim = uploads.get(fileName);
+        if (claim != null && claim.ranged() && claim.owner().isOpen()) {
+            return null;
+        }
+        return claim != null && claim.owner().isOpen() ? "ERROR: " + fileName + " is already being uploaded"
+                : "ERROR: No multi-stream upload of " + fileName + " was begun";
+    }
+
+    // uploadbegin?name?size: preallocates name.part so parallel ranges can be written at their offsets.
+    private static void handleUploadBeginCommand(String s, Session session) {
         try {
-            OutputStream outputStream = socket.getOutputStream();
-            String [] parts = s.split("\\?");
+            OutputStream outputStream = session.output();
+            String[] parts = s.split("\\?");
             if (parts.length != 2) {
-                outputStream.write("ERROR: upload command requires exactly 2 arguments: filename and filesize\n".getBytes());
+                outputStream.write("ERROR: uploadbegin command requires exactly 2 arguments: filename and filesize\n".getBytes());
+                outputStream.flush();
+                return;
+            }
+            String refused = cannotStore(parts[0]);
+            long fileSize = parts[1].matches("\\d{1,18}") ? Long.parseLong(parts[1]) : -1;
+            if (refused == null && fileSize < 0) {
+                refused = "ERROR: Invalid file size: " + parts[1];
+            }
+            if (refused == null) {
+                // Held until uploadcommit, or until this connection closes
+                refused = claimUpload(parts[0], session.connection(), true);
+            }
+            if (refused != null) {
+                outputStream.write((refused + "\n").getBytes());
+                outputStream.flush();
+                return;
+            }
+            File partFile = partFileFor(storage.file(parts[0]));
+            try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+                raf.setLength(0);
+                raf.setLength(fileSize);
+            }
+            outputStream.write(("OK: Ready for " + parts[0] + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // uploadcommit?name?size: publishes a multi-stream upload once every range is in.
+    private static void handleUploadCommitCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            String[] parts = s.split("\\?");
+            if (parts.length != 2) {
+                outputStream.write("ERROR: uploadcommit command requires exactly 2 arguments: filename and filesize\n".getBytes());
                 outputStream.flush();
                 return;
             }
             String fileName = parts[0];
             long fileSize = Long.parseLong(parts[1]);
-            File myFolder = new File("ServerFiles");
-            if (!myFolder.exists()) {
-                myFolder.mkdirs();
-            }
-            File newFile = new File(myFolder, fileName);
-            try (FileOutputStream fileOutputStream = new FileOutputStream(newFile)) {
-                byte[] buffer = new byte[4096];
-                long bytesReceived = 0;
-                int bytesRead;
-                while (bytesReceived < fileSize) {
-                    int toRead = (int) Math.min(buffer.length, fileSize - bytesReceived);
-                    bytesRead = clientIn.read(buffer, 0, toRead);
-
-                    if (bytesRead == -1) {
-                        throw new IOException("Unexpected end of stream. Expected " + fileSize + " bytes, got " + bytesReceived);
+            String refused = cannotStore(fileName);
+            if (refused != null) {
+                outputStream.write((refused + "\n").getBytes());
+                outputStream.flush();
+                return;
+            }
+            refused = rangedUploadMissing(fileName);
+            if (refused != null) {
+                outputStream.write((refused + "\n").getBytes());
+                outputStream.flush();
+                return;
+            }
+            File target = storage.file(fileName);
+            File partFile = partFileFor(target);
+            if (!partFile.isFile() || partFile.length() != fileSize) {
+                outputStream.write(("ERROR: No complete upload of " + fileSize + " bytes for " + fileName + "\n").getBytes());
+                outputStream.flush();
+                return;
+            }
+            publish(partFile, target);
+            uploads.remove(fileName);
+            outputStream.write(("OK: File uploaded: " + fileName + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Replies OK?<n> and n lines of metrics: server?connections=..?inflight=..?throughput=..,
+    // then cache?... when caching, and per command requests, errors, latency percentiles and bytes.
+    private static void handleStatsCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            List<String> lines = ServerMetrics.snapshot();
+            StringBuilder reply = new StringBuilder("OK?").append(lines.size()).append("\n");
+            for (String line : lines) {
+                reply.append(line).append("\n");
+            }
+            outputStream.write(reply.toString().getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Replies OK?hits=..?misses=..?... with the download cache counters, or an ERROR when it is off.
+    private static void handleCacheStatsCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            outputStream.write((fileCache == null ? "ERROR: The file cache is not enabled on this server\n"
+                    : "OK?" + fileCache.stats() + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Replies OK?<name>,<name>... with the codecs this server can compress and decompress.
+    private static void handleCodecsCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            outputStream.write(("OK?" + String.join(",", Codecs.names()) + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The <count> of lines a chunk command says follow, or -1 after refusing it and closing the
+    // session: unread, those lines would run as commands.
+    private static int chunkCount(String count, Session session) throws IOException {
+        int n = Integer.parseInt(count);
+        if (n >= 0 && n <= ChunkStore.MAX_CHUNKS) {
+            return n;
+        }
+        session.output().write(("ERROR: Chunk count " + n + " is outside 0.." + ChunkStore.MAX_CHUNKS + "\n").getBytes());
+        session.output().flush();
+        session.close();
+        return -1;
+    }
+
+    // chunkcheck?<count> followed by <count> hash lines; replies OK?<m> and the m hashes the store lacks.
+    private static void handleChunkCheckCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            int count = chunkCount(s.trim(), session);
+            if (count < 0) {
+                return;
+            }
+            List<String> hashes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                hashes.add(readLine(session.input()));
+            }
+            if (chunkStore == null) {
+                outputStream.write("ERROR: Deduplication is not enabled on this server\n".getBytes());
+                outputStream.flush();
+                return;
+            }
+            List<String> missing = chunkStore.missing(hashes);
+            StringBuilder reply = new StringBuilder("OK?").append(missing.size()).append("\n");
+            for (String hash : missing) {
+                reply.append(hash).append("\n");
+            }
+            outputStream.write(reply.toString().getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // chunkput?<count> followed by <count> times "hash?length\n" and the chunk bytes.
+    private static void handleChunkPutCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            if (chunkStore == null) {
+                outputStream.write("ERROR: Deduplication is not enabled on this server\n".getBytes());
+                outputStream.flush();
+                session.close();
+                return;
+            }
+            int count = Integer.parseInt(s.trim());
+            byte[] data = new byte[Chunker.MAX_CHUNK];
+            String failure = null;
+            for (int i = 0; i < count; i++) {
+                String[] header = readLine(session.input()).split("\\?");
+                int length = Integer.parseInt(header[1]);
+                if (length < 0 || length > data.length) {
+                    outputStream.write(("ERROR: Chunk length " + length + " is outside 0.." + Chunker.MAX_CHUNK + "\n").getBytes());
+                    outputStream.flush();
+                    // The rest of the body cannot be skipped without trusting that length
+                    session.close();
+                    return;
+                }
+                if (session.input().readNBytes(data, 0, length) != length) {
+                    throw new IOException("Unexpected end of stream inside chunk " + header[0]);
+                }
+                try {
+                    chunkStore.putChunk(header[0], data, length);
+                } catch (IOException | IllegalArgumentException e) {
+                    // Keep reading so the connection stays in step, then report the first failure
+                    failure = failure == null ? e.getMessage() : failure;
+                }
+            }
+            outputStream.write((failure == null ? "OK?" + count + "\n" : "ERROR: " + failure + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // chunkcommit?name?<count> followed by <count> "hash?length" lines: publishes name as those chunks.
+    private static void handleChunkCommitCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            String[] parts = s.split("\\?");
+            String fileName = parts[0];
+            int count = chunkCount(parts[1], session);
+            if (count < 0) {
+                return;
+            }
+            List<ChunkStore.ChunkRef> refs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String[] ref = readLine(session.input()).split("\\?");
+                refs.add(new ChunkStore.ChunkRef(ref[0], Integer.parseInt(ref[1])));
+            }
+            if (chunkStore == null) {
+                outputStream.write("ERROR: Deduplication is not enabled on this server\n".getBytes());
+                outputStream.flush();
+                return;
+            }
+            String refused = cannotStore(fileName);
+            if (refused != null) {
+                outputStream.write((refused + "\n").getBytes());
+                outputStream.flush();
+                return;
+            }
+            try {
+                chunkStore.writeManifest(fileName, refs);
+            } catch (IOException | IllegalArgumentException e) {
+                outputStream.write(("ERROR: " + e.getMessage() + "\n").getBytes());
+                outputStream.flush();
+                return;
+            }
+            // The stored version replaces any plain copy under the same name
+            Files.deleteIfExists(storage.file(fileName).toPath());
+            fileChanged(fileName);
+            outputStream.write(("OK: File uploaded: " + fileName + "\n").getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // deltasig?name: replies OK?<size>?<blockSize>?<count> and one weak?strong line per whole block
+    // of the server's plain copy of name, for a client about to send it as a deltaput.
+    private static void handleDeltaSigCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            String fileName = s.trim();
+            File file = storage.file(fileName);
+            if (!isPlainName(fileName) || !file.isFile()) {
+                outputStream.write(("ERROR: No plain copy of " + fileName + " to compare against\n").getBytes());
+                outputStream.flush();
+                return;
+            }
+            StringBuilder reply = new StringBuilder();
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = fileChannel.size();
+                int blockSize = DeltaSync.blockSize(size);
+                List<DeltaSync.Signature> signatures = DeltaSync.signatures(fileChannel, blockSize);
+                reply.append("OK?").append(size).append('?').append(blockSize).append('?').append(signatures.size()).append("\n");
+                for (DeltaSync.Signature signature : signatures) {
+                    reply.append(String.format("%08x", signature.weak())).append('?').append(signature.strong()).append("\n");
+                }
+            }
+            outputStream.write(reply.toString().getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // deltaput?name?size?blockSize followed by a delta (see DeltaSync): rebuilds name from blocks of
+    // its current copy and the literal bytes sent, then replaces the old copy in one move.
+    private static void handleDeltaPutCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parse(s);
+            int blockSize = args.count() == 3 ? (int) args.getLong(2, 0) : 0;
+            if (blockSize < DeltaSync.MIN_BLOCK || blockSize > DeltaSync.MAX_BLOCK) {
+                outputStream.write("ERROR: deltaput command requires filename, filesize and a valid block size\n".getBytes());
+                outputStream.flush();
+                // The delta that follows cannot be parsed, so the connection is unusable
+                session.close();
+                return;
+            }
+            String fileName = args.get(0);
+            long fileSize = args.getLong(1, 0);
+            String misrouted = misrouted(fileName);
+            if (misrouted != null) {
+                outputStream.write((misrouted + "\n").getBytes());
+                outputStream.flush();
+                session.close();
+                return;
+            }
+            File target = storage.file(fileName);
+            boolean valid = isPlainName(fileName);
+            // Not name.part: that belongs to resumable uploads of the same file
+            File partFile = File.createTempFile("delta", PART_SUFFIX, valid ? target.getParentFile() : storage.primary().toFile());
+            StreamChecksum checksum = StreamChecksum.create(StreamChecksum.SHA256);
+            String failure;
+            try (FileChannel base = valid && target.isFile() ? FileChannel.open(target.toPath(), StandardOpenOption.READ) : null;
+                 FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)) {
+                failure = DeltaSync.rebuild(session.input(), base, blockSize, fileSize, fileChannel, checksum);
+            } catch (IOException e) {
+                Files.deleteIfExists(partFile.toPath());
+                throw e;
+            }
+            if (!valid) {
+                failure = "Invalid file name: " + fileName;
+            }
+            if (failure != null) {
+                Files.deleteIfExists(partFile.toPath());
+                outputStream.write(("ERROR: " + failure + "\n").getBytes());
+            } else {
+                publish(partFile, target);
+                recordChecksum(fileName, fileSize, checksum);
+                Log.info("Rebuilt " + fileName + " from a delta");
+                outputStream.write(("OK: File uploaded: " + fileName + "\n").getBytes());
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Moves a finished upload into place, into the chunk store when dedup is on.
+    private static void publish(File partFile, File target) throws IOException {
+        Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (chunkStore != null) {
+            chunkStore.ingest(target, target.getName());
+        }
+        fileChanged(target.getName());
+    }
+
+    // Keeps a checksum computed while a whole file streamed in, so checksum never has to read it.
+    private static void recordChecksum(String name, long size, StreamChecksum checksum) throws IOException {
+        DirectoryIndex.Entry entry = listing.get(name);
+        if (entry != null && entry.size() == size) {
+            listing.recordChecksum(entry, checksum.algorithm(), checksum.value());
+        }
+    }
+
+    // checksum?name[?algorithm=sha256|crc32c]: replies OK?<algorithm>?<hex>?<size>. The checksum
+    // index answers unless no transfer recorded one at the file's current size and mtime.
+    private static void handleChecksumCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parse(s);
+            String algorithm = Objects.requireNonNullElse(args.option("algorithm"), StreamChecksum.SHA256);
+            DirectoryIndex.Entry entry = args.count() == 1 ? listing.get(args.get(0)) : null;
+            if (entry == null) {
+                outputStream.write("ERROR: File not found\n".getBytes());
+            } else if (StreamChecksum.create(algorithm) == null) {
+                outputStream.write(("ERROR: Unsupported checksum " + algorithm + "\n").getBytes());
+            } else {
+                String value = listing.checksum(entry, algorithm);
+                outputStream.write(("OK?" + algorithm + "?" + value + "?" + entry.size() + "\n").getBytes());
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // touch?name?mtime: sets the mtime of name (epoch milliseconds) so a synced copy lists with its
+    // source's mtime; replies OK?<mtime>. Recorded checksums carry over, as the content is unchanged.
+    private static void handleTouchCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parse(s);
+            DirectoryIndex.Entry entry = args.count() == 2 ? listing.get(args.get(0)) : null;
+            long modified;
+            try {
+                modified = args.count() == 2 ? args.getLong(1, 0) : -1;
+            } catch (NumberFormatException e) {
+                modified = -1;
+            }
+            if (entry == null) {
+                outputStream.write("ERROR: File not found\n".getBytes());
+            } else if (modified < 0) {
+                outputStream.write("ERROR: touch command requires filename and mtime\n".getBytes());
+            } else {
+                String fileName = entry.name();
+                entry = listing.setModified(entry, modified);
+                if (fileCache != null) {
+                    fileCache.invalidate(fileName);
+                }
+                outputStream.write((entry != null ? "OK?" + entry.modified() + "\n" : "ERROR: File not found\n").getBytes());
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // nodes: replies OK?<n> and the n host:port ids of the cluster, which clients hash names onto to
+    // find each file's owner. A lone server replies OK?0: everything lives on this connection's server.
+    private static void handleNodesCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            StringBuilder reply = new StringBuilder("OK?").append(cluster != null ? cluster.size() : 0).append("\n");
+            if (cluster != null) {
+                for (String member : cluster.members()) {
+                    reply.append(member).append("\n");
+                }
+            }
+            outputStream.write(reply.toString().getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Null when a handler may create name here: a plain name (no paths, no .part, not .store or .index) that
+    // this node owns. Otherwise the error reply. Every command that creates a file asks first.
+    private static String cannotStore(String name) {
+        return isPlainName(name) ? misrouted(name) : "ERROR: Invalid file name: " + name;
+    }
+
+    // Null when this node may store name; otherwise the error reply naming the node that owns it.
+    private static String misrouted(String name) {
+        if (cluster == null) {
+            return null;
+        }
+        String owner = cluster.owner(name);
+        return owner.equals(node) ? null : "ERROR: " + name + " belongs to node " + owner;
+    }
+
+    // Brings the listing and the download cache up to date after a handler changed a file.
+    private static void fileChanged(String name) {
+        listing.refresh(name);
+        if (fileCache != null) {
+            fileCache.invalidate(name);
+        }
+    }
+
+    // mget?<count>[?codecs=...] followed by <count> name or glob lines: streams every match as one bundle. The reply is
+    // OK?<entries>, then per file FILE?name?size?codec, its bytes and DONE?name, or
+    // SKIP?name?reason for a name that could not be sent, and finally END.
+    private static void handleMgetCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            CommandArgs args = CommandArgs.parse(s);
+            List<String> names = matchNames(readPatterns(args, session));
+            String offer = args.option("codecs");
+            outputStream.write(("OK?" + names.size() + "\n").getBytes(StandardCharsets.UTF_8));
+            for (String name : names) {
+                File file = storage.file(name);
+                FileCache.Entry cached = fileCache != null ? fileCache.get(name) : null;
+                if (cached != null) {
+                    long size = cached.size();
+                    sendBundleEntry(session, name, size, offer != null && cached.compressible() ? offer : null,
+                            cached::read, () -> cached.send(0, size, outputStream, session.channel()));
+                } else if (file.isFile() && !name.endsWith(PART_SUFFIX)) {
+                    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        long size = fileChannel.size();
+                        boolean compressible = Codecs.isCompressible(file);
+                        FileCache.Entry loaded = fileCache != null ? fileCache.admit(name, fileChannel, compressible) : null;
+                        sendBundleEntry(session, name, size, offer != null && size > 0 && compressible ? offer : null,
+                                loaded != null ? loaded::read : fileChannel::read,
+                                loaded != null ? () -> loaded.send(0, size, outputStream, session.channel())
+                                        : () -> Transfers.send(fileChannel, 0, size, outputStream, session.channel()));
+                    }
+                } else if (chunkStore != null && chunkStore.exists(name)) {
+                    try (ChunkStore.ChunkedFile stored = chunkStore.open(name)) {
+                        long size = stored.size();
+                        sendBundleEntry(session, name, size, offer != null && size > 0 && isCompressible(name, stored) ? offer : null,
+                                stored::read, () -> stored.send(0, size, outputStream, session.channel()));
                     }
-                    fileOutputStream.write(buffer, 0, bytesRead);
-                    bytesReceived += bytesRead;
+                } else {
+                    outputStream.write(("SKIP?" + name + "?File not found\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            outputStream.write("END\n".getBytes());
+            outputStream.flush();
+            Log.info("Sent bundle of " + names.size() + " files");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private interface BodySender {
+        void send() throws IOException;
+    }
 
-                    if (bytesReceived % (1024 * 1024) == 0 || bytesReceived == fileSize) {
-                        System.out.printf("Progress: %d / %d bytes (%.1f%%)%n",
-                                bytesReceived, fileSize, (bytesReceived * 100.0 / fileSize));
+    private static void sendBundleEntry(Session session, String name, long size, String offer,
+                                        Transfers.PositionalReader source, BodySender rawSender) throws IOException {
+        OutputStream outputStream = session.output();
+        String codecSpec = offer != null ? Codecs.choose(offer) : null;
+        outputStream.write(("FILE?" + name + "?" + size + "?" + (codecSpec == null ? Codecs.IDENTITY : codecSpec) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        if (codecSpec != null) {
+            Transfers.sendEncoded(source, 0, size, outputStream, Codecs.get(codecSpec.split(":", 2)[0]), Codecs.levelOf(codecSpec));
+        } else {
+            rawSender.send();
+        }
+        outputStream.write(("DONE?" + name + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> readPatterns(CommandArgs args, Session session) throws IOException {
+        int count = (int) args.getLong(0, 0);
+        List<String> patterns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String pattern = readLine(session.input());
+            if (pattern == null) {
+                throw new IOException("Connection closed after " + i + " of " + count + " patterns");
+            }
+            patterns.add(pattern);
+        }
+        return patterns;
+    }
+
+    // Expands patterns: a glob selects every listed file it matches, anything else is
+    // taken as a file name. Each file appears once, in pattern order.
+    private static List<String> matchNames(List<String> patterns) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (pattern.chars().noneMatch(c -> c == '*' || c == '?' || c == '[' || c == '{')) {
+                names.add(pattern);
+                continue;
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            for (DirectoryIndex.Entry entry : listing.query(null, null, false, 0, 0).entries()) {
+                if (matcher.matches(Path.of(entry.name()))) {
+                    names.add(entry.name());
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    // mput?<count> followed by <count> times FILE?name?size?codec, the bytes and DONE?name.
+    // Replies OK?<count> and one OK/ERROR line per file once the whole bundle is in.
+    private static void handleMputCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            int count = Integer.parseInt(s.trim());
+            List<String> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String header = readLine(session.input());
+                if (header == null || !header.startsWith("FILE?")) {
+                    throw new IOException("Expected a FILE header in the upload bundle, got: " + header);
+                }
+                CommandArgs entry = CommandArgs.parse(header.substring(5));
+                String fileName = entry.get(0);
+                long size = entry.getLong(1, 0);
+                Codec codec = Codecs.get(entry.count() > 2 ? entry.get(2).split(":", 2)[0] : null);
+                if (entry.count() > 2 && codec == null && !entry.get(2).equals(Codecs.IDENTITY)) {
+                    throw new IOException("Unsupported codec " + entry.get(2) + " in upload bundle");
+                }
+                // A bad name still has its bytes read, into a scratch file, to keep the stream in step
+                String refused = cannotStore(fileName);
+                if (refused == null) {
+                    refused = claimUpload(fileName, session.connection(), false);
+                }
+                boolean valid = refused == null;
+                try {
+                    File partFile = valid ? partFileFor(storage.file(fileName))
+                            : File.createTempFile("mput", PART_SUFFIX, storage.primary().toFile());
+                    try (FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        if (codec != null) {
+                            Transfers.receiveEncoded(session.input(), fileChannel, 0, size, codec);
+                        } else {
+                            Transfers.receive(session.input(), session.channel(), fileChannel, 0, size);
+                        }
+                    }
+                    String trailer = readLine(session.input());
+                    if (!("DONE?" + fileName).equals(trailer)) {
+                        Files.deleteIfExists(partFile.toPath());
+                        throw new IOException("Upload bundle out of step after " + fileName + ": " + trailer);
+                    }
+                    if (valid) {
+                        publish(partFile, storage.file(fileName));
+                        results.add("OK: File uploaded: " + fileName);
+                    } else {
+                        Files.deleteIfExists(partFile.toPath());
+                        results.add(refused);
+                    }
+                } finally {
+                    if (valid) {
+                        releaseUpload(fileName, session.connection());
                     }
                 }
             }
-            outputStream.write(("OK: File uploaded: " + fileName + "\n").getBytes());
+            StringBuilder reply = new StringBuilder("OK?").append(count).append("\n");
+            for (String result : results) {
+                reply.append(result).append("\n");
+            }
+            outputStream.write(reply.toString().getBytes(StandardCharsets.UTF_8));
             outputStream.flush();
-        }catch (IOException e){
+            Log.info("Received bundle of " + count + " files");
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static void handleQuitCommand(String s, Socket socket) {
-        System.out.println("Client requested disconnect");
-        System.exit(0);
+    private static boolean isPlainName(String fileName) {
+        return !fileName.isEmpty() && !fileName.equals(".") && !fileName.equals("..") && !fileName.equals(".store")
+                && !fileName.equals(DirectoryIndex.INDEX_FOLDER) && fileName.indexOf('/') < 0 && fileName.indexOf('\\') < 0 && !fileName.endsWith(PART_SUFFIX);
     }
 
-    private static void handleDownloadCommand(String fileName, Socket socket) {
+    // mdelete?<count> followed by <count> name or glob lines: replies OK?<n> and one result line per file.
+    private static void handleMdeleteCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            List<String> names = matchNames(readPatterns(CommandArgs.parse(s), session));
+            StringBuilder reply = new StringBuilder("OK?").append(names.size()).append("\n");
+            for (String name : names) {
+                reply.append(deleteFile(name)).append("\n");
+            }
+            outputStream.write(reply.toString().getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // mrename?<count> followed by <count> "old?new" lines: replies OK?<count> and one result line per pair.
+    private static void handleMrenameCommand(String s, Session session) {
+        try {
+            OutputStream outputStream = session.output();
+            int count = Integer.parseInt(s.trim());
+            List<String[]> pairs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String line = readLine(session.input());
+                pairs.add(line == null ? new String[0] : line.split("\\?"));
+            }
+            StringBuilder reply = new StringBuilder("OK?").append(count).append("\n");
+            for (String[] pair : pairs) {
+                reply.append(pair.length == 2 ? renameFile(pair[0], pair[1]) : "ERROR: Expected oldname?newname").append("\n");
+            }
+            outputStream.write(reply.toString().getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static File partFileFor(File target) {
+        return new File(target.getParentFile(), target.getName() + PART_SUFFIX);
+    }
+
+    private static void handleQuitCommand(String s, Session session) {
+        Log.info("Client requested disconnect");
+        session.close();
+    }
+
+    private static void handleDownloadCommand(String s, Session session) {
        try {
-              OutputStream outputStream = socket.getOutputStream();
-           File myFolder = new File("ServerFiles");
-           if (!myFolder.exists()) {
-               myFolder.mkdirs();
+              OutputStream outputStream = session.output();
+           CommandArgs args = CommandArgs.parse(s);
+           String fileName = args.get(0);
+           Log.info("Client requested file " + fileName);
+           File file = storage.file(fileName);
+           // Looked up before the file is opened, so a checksum recorded against it can only be stale, never wrong
+           DirectoryIndex.Entry entry = listing.get(fileName);
+           FileCache.Entry cached = fileCache != null ? fileCache.get(fileName) : null;
+           if (cached != null) {
+               sendFileBody(args, session, entry, cached.size(), cached.compressible(), cached::read,
+                       (offset, length) -> cached.send(offset, length, outputStream, session.channel()));
+               return;
+           }
+           if (!file.exists() && chunkStore != null && chunkStore.exists(fileName)) {
+               try (ChunkStore.ChunkedFile stored = chunkStore.open(fileName)) {
+                   sendFileBody(args, session, entry, stored.size(), isCompressible(fileName, stored), stored::read,
+                           (offset, length) -> stored.send(offset, length, outputStream, session.channel()));
+               }
+               return;
            }
-           System.out.println("Client requested file " + fileName);
-           File file = new File(myFolder, fileName);
            if (!file.exists()) {
                outputStream.write("ERROR: File not found\n".getBytes());
                outputStream.flush();
@@ -224,23 +1238,94 @@ public class Server {
                return;
            }
 
-           // Send file size first
-           long fileSize = file.length();
-           outputStream.write(("OK?" + fileSize + "\n").getBytes());
-           outputStream.flush();
-
-           // Send file contents
-           try (FileInputStream fileInputStream = new FileInputStream(file)) {
-               byte[] buffer = new byte[4096];
-               int bytesRead;
-               while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                   outputStream.write(buffer, 0, bytesRead);
+           try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+               boolean compressible = Codecs.isCompressible(file);
+               FileCache.Entry loaded = fileCache != null ? fileCache.admit(fileName, fileChannel, compressible) : null;
+               if (loaded != null) {
+                   sendFileBody(args, session, entry, loaded.size(), compressible, loaded::read,
+                           (offset, length) -> loaded.send(offset, length, outputStream, session.channel()));
+                   return;
                }
+               sendFileBody(args, session, entry, fileChannel.size(), compressible, fileChannel::read,
+                       (offset, length) -> Transfers.send(fileChannel, offset, length, outputStream, session.channel()));
            }
-           outputStream.flush();
-           System.out.println("File sent successfully.");
        } catch (IOException e) {
            throw new RuntimeException(e);
-       };
+       }
+    }
+
+    private interface RangeSender {
+        void send(long offset, long length) throws IOException;
+    }
+
+    // Writes the download reply header and body for the range requested in args, then with
+    // verify=<algorithm> a CHECKSUM?algorithm?hex trailer for the bytes of the range.
+    private static void sendFileBody(CommandArgs args, Session session, DirectoryIndex.Entry entry, long fileSize, boolean compressible,
+                                     Transfers.PositionalReader source, RangeSender rawSender) throws IOException {
+        OutputStream outputStream = session.output();
+        long offset = args.getLong(1, 0);
+        long length = Math.min(args.getLong(2, fileSize - offset), fileSize - offset);
+        if (offset < 0 || offset > fileSize || length < 0) {
+            outputStream.write(("ERROR: Invalid range " + offset + " for file of " + fileSize + " bytes\n").getBytes());
+            outputStream.flush();
+            return;
+        }
+        // resume=<algorithm>:<hex> covers the bytes the client already holds; a changed file must start over
+        String resume = args.option("resume");
+        if (resume != null && !StreamChecksum.matchesPrefix(resume, source, offset)) {
+            outputStream.write("ERROR: Partial download does not match the current file\n".getBytes());
+            outputStream.flush();
+            return;
+        }
+        String verify = args.option("verify");
+        StreamChecksum checksum = StreamChecksum.create(verify);
+        if (verify != null && checksum == null) {
+            outputStream.write(("ERROR: Unsupported checksum " + verify + "\n").getBytes());
+            outputStream.flush();
+            return;
+        }
+        // A whole file with a recorded checksum can still go out zero-copy; anything else is checksummed as it is sent
+        boolean wholeFile = offset == 0 && length == fileSize && entry != null && entry.size() == fileSize;
+        String known = checksum != null && wholeFile ? listing.knownChecksum(entry, checksum.algorithm()) : null;
+        StreamChecksum inline = known == null ? checksum : null;
+
+        // A client that offers codecs gets one unless the content is already compressed
+        String offer = args.option("codecs");
+        String codecSpec = offer != null && length > 0 && compressible ? Codecs.choose(offer) : null;
+
+        // Send the slice size first; ranged requests also get the full size so the client can resume
+        if (offer != null) {
+            outputStream.write(("OK?" + length + "?" + fileSize + "?" + (codecSpec == null ? Codecs.IDENTITY : codecSpec) + "\n").getBytes());
+        } else if (args.count() > 1) {
+            outputStream.write(("OK?" + length + "?" + fileSize + "\n").getBytes());
+        } else {
+            outputStream.write(("OK?" + fileSize + "\n").getBytes());
+        }
+        outputStream.flush();
+
+        // Send file contents
+        if (codecSpec != null) {
+            Codec codec = Codecs.get(codecSpec.split(":", 2)[0]);
+            Transfers.sendEncoded(source, offset, length, outputStream, codec, Codecs.levelOf(codecSpec), inline);
+        } else if (inline != null) {
+            Transfers.send(source, offset, length, outputStream, inline);
+        } else {
+            rawSender.send(offset, length);
         }
-}
\ No newline at end of file
+        if (checksum != null) {
+            String value = known != null ? known : inline.value();
+            outputStream.write(("CHECKSUM?" + checksum.algorithm() + "?" + value + "\n").getBytes());
+            outputStream.flush();
+            if (known == null && wholeFile) {
+                listing.recordChecksum(entry, checksum.algorithm(), value);
+            }
+        }
+        Log.info("File sent successfully.");
+    }
+
+    private static boolean isCompressible(String fileName, ChunkStore.ChunkedFile stored) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(4);
+        int n = stored.size() > 0 ? stored.read(head, 0) : 0;
+        return Codecs.isCompressible(fileName, head.array(), Math.max(n, 0));
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Startup options for {@link Server}, given on the command line as {@code --key=value}.
+ * A bare number is still accepted as the port so {@code java Server 3002} keeps working.
+ */
+public class ServerConfig {
+    public final int port;
+    public final int maxConnections;
+    /** {@code blocking} (a virtual thread per connection) or {@code nio} (selector event loops). */
+    public final String engine;
+    public final int eventLoops;
+    /** Size of the copy buffer used wherever a transfer cannot be zero-copy. */
+    public final int bufferSize;
+    public final boolean zeroCopy;
+    /** Keep uploads in the content-addressed {@link ChunkStore} instead of as full copies. */
+    public final boolean dedup;
+    /** Bytes of hot files {@link FileCache} may hold in memory; 0 turns the cache off. */
+    public final long cacheSize;
+    /** Cached files at least this large are memory-mapped instead of copied. */
+    public final long cacheMapThreshold;
+    /** Per-request console output: {@code async} (queued, the default), {@code sync} or {@code off}. */
+    public final String log;
+    /** Seconds between metrics dumps to {@link #metricsFile}; 0 turns the dump off. */
+    public final int metricsInterval;
+    public final String metricsFile;
+    /** Bytes per second all bulk transfers together may move; 0 for no limit. */
+    public final long rateLimit;
+    /** Bytes per second the bulk transfers of one connection may move; 0 for no limit. */
+    public final long connectionRateLimit;
+    /** Bulk requests served at once; later ones queue in arrival order. 0 for no limit. */
+    public final int bulkTransfers;
+    /** Transfers up to this many bytes take the priority lane with the metadata commands. */
+    public final long prioritySize;
+    /** Directories, ideally on separate disks, that {@link Storage} spreads files over; the first holds {@code .store} and {@code .index}. */
+    public final List<String> roots;
+    /** {@code host:port} of every server sharing the files by {@link HashRing}; empty for a lone server. */
+    public final List<String> cluster;
+    /** This server's own {@code host:port} as written in {@link #cluster}. */
+    public final String node;
+
+    private ServerConfig(Map<String, String> options) {
+        this.port = Integer.parseInt(options.getOrDefault("port", "3002"));
+        this.maxConnections = Integer.parseInt(options.getOrDefault("max-connections", "256"));
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("max-connections must be at least 1");
+        }
+        this.engine = options.getOrDefault("engine", "blocking");
+        if (!engine.equals("blocking") && !engine.equals("nio")) {
+            throw new IllegalArgumentException("engine must be 'blocking' or 'nio', got: " + engine);
+        }
+        this.eventLoops = Integer.parseInt(options.getOrDefault("event-loops",
+                String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+        this.bufferSize = Integer.parseInt(options.getOrDefault("buffer-size", String.valueOf(64 * 1024)));
+        this.zeroCopy = Boolean.parseBoolean(options.getOrDefault("zero-copy", "true"));
+        this.dedup = Boolean.parseBoolean(options.getOrDefault("dedup", "false"));
+        this.cacheSize = Long.parseLong(options.getOrDefault("cache-size", "0"));
+        this.cacheMapThreshold = Long.parseLong(options.getOrDefault("cache-map-threshold", String.valueOf(1024 * 1024)));
+        if (cacheSize < 0 || cacheMapThreshold < 0) {
+            throw new IllegalArgumentException("cache-size and cache-map-threshold cannot be negative");
+        }
+        this.log = options.getOrDefault("log", "async");
+        if (!log.equals("async") && !log.equals("sync") && !log.equals("off")) {
+            throw new IllegalArgumentException("log must be 'async', 'sync' or 'off', got: " + log);
+        }
+        this.metricsInterval = Integer.parseInt(options.getOrDefault("metrics-interval", "0"));
+        if (metricsInterval < 0) {
+            throw new IllegalArgumentException("metrics-interval cannot be negative");
+        }
+        this.metricsFile = options.getOrDefault("metrics-file", "metrics.log");
+        this.rateLimit = Long.parseLong(options.getOrDefault("rate-limit", "0"));
+        this.connectionRateLimit = Long.parseLong(options.getOrDefault("connection-rate-limit", "0"));
+        this.bulkTransfers = Integer.parseInt(options.getOrDefault("bulk-transfers", "16"));
+        this.prioritySize = Long.parseLong(options.getOrDefault("priority-size", String.valueOf(1024 * 1024)));
+        if (rateLimit < 0 || connectionRateLimit < 0 || bulkTransfers < 0 || prioritySize < 0) {
+            throw new IllegalArgumentException("rate-limit, connection-rate-limit, bulk-transfers and priority-size cannot be negative");
+        }
+        this.roots = split(options.getOrDefault("roots", "ServerFiles"));
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("roots must name at least one directory");
+        }
+        this.cluster = split(options.getOrDefault("cluster", ""));
+        this.node = options.getOrDefault("node", "localhost:" + port);
+    }
+
+    private static List<String> split(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).filter(item -> !item.isEmpty()).distinct().toList();
+    }
+
+    public static ServerConfig parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                String[] kv = arg.substring(2).split("=", 2);
+                options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+            } else {
+                options.put("port", arg);
+            }
+        }
+        return new ServerConfig(options);
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The client's end of one connection to {@link Server}. Reply lines and file bytes are
+ * read from the same buffered stream, so a line read never swallows the start of the
+ * file data that follows it, and the channel stays available for zero-copy transfers.
+ * <p>
+ * After {@link #useFrames()} the same request-then-reply calls go over the {@link Frames}
+ * protocol: {@link #send} starts a new request, {@link #output()} is that request's body
+ * and {@link #input()} its reply. {@link #frames()} gives access to pipelining.
+ */
+public class ServerConnection implements Closeable, LineInput {
+    private final SocketChannel channel;
+    private final SocketInput in;
+    private final OutputStream out;
+    private List<String> serverCodecs;
+    // Codec offered on this connection's transfers, as name[:level], or null for raw bytes
+    private final String compression;
+    // Checksum asked for on this connection's transfers, or null to leave them unverified
+    private final String verify;
+    private FrameClient frames;
+    private FrameClient.Call current;
+
+    private ServerConnection(SocketChannel channel, String compression, String verify) throws IOException {
+        this.channel = channel;
+        this.compression = compression;
+        this.verify = verify;
+        this.in = new SocketInput(channel.socket().getInputStream());
+        this.out = channel.socket().getOutputStream();
+    }
+
+    public static ServerConnection open(String host, int port) throws IOException {
+        return open(host, port, null);
+    }
+
+    public static ServerConnection open(String host, int port, String compression) throws IOException {
+        return open(host, port, compression, null);
+    }
+
+    public static ServerConnection open(String host, int port, String compression, String verify) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        return new ServerConnection(channel, compression, verify);
+    }
+
+    /** Opens a connection with the client's settings, switching to frames if they ask for it. */
+    public static ServerConnection open(ClientConfig config) throws IOException {
+        ServerConnection connection = open(config.host, config.port, config.compression, config.verify);
+        if (config.protocol.equals(Frames.PROTOCOL) && !connection.useFrames()) {
+            System.out.println("Server does not support framing; using the text protocol");
+        }
+        return connection;
+    }
+
+    public String compression() {
+        return compression;
+    }
+
+    public String verify() {
+        return verify;
+    }
+
+    /**
+     * Asks the server to switch this connection to the framed protocol. Returns
+     * {@code false}, and stays on the text protocol, if the server declines.
+     */
+    public boolean useFrames() throws IOException {
+        send("protocol", Frames.PROTOCOL + "?" + Frames.VERSION);
+        String reply = readLine();
+        if (reply == null || !reply.startsWith("OK?" + Frames.PROTOCOL + "?")) {
+            return false;
+        }
+        frames = new FrameClient(in, out);
+        return true;
+    }
+
+    /** The framed transport for pipelined requests, or {@code null} on the text protocol. */
+    public FrameClient frames() {
+        return frames;
+    }
+
+    /** Starts a request: a command line on the text protocol, a new call when framed. */
+    public void send(String command, String args) throws IOException {
+        if (frames == null) {
+            String payload = command + (args == null ? "" : "?" + args) + "\n";
+            out.write(payload.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return;
+        }
+        if (current != null) {
+            current.endBody();
+        }
+        current = frames.submit(command, args, true);
+    }
+
+    public InputStream input() throws IOException {
+        if (frames == null) {
+            return in;
+        }
+        // Reading the reply means the request body is complete
+        current.endBody();
+        return current.reply();
+    }
+
+    public OutputStream output() {
+        return frames == null ? out : current.body();
+    }
+
+    /** The socket for zero-copy transfers; {@code null} when framed, since bytes travel inside frames. */
+    public SocketChannel channel() {
+        return frames == null ? channel : null;
+    }
+
+    /** Reads one reply line, or returns {@code null} if the server closed the connection. */
+    @Override
+    public String readLine() throws IOException {
+        if (frames == null) {
+            return in.readLine();
+        }
+        current.endBody();
+        return current.readLine();
+    }
+
+    /** The codecs the server accepts for uploads, asked once per connection. */
+    public List<String> serverCodecs() throws IOException {
+        if (serverCodecs == null) {
+            send("codecs", null);
+            String reply = readLine();
+            serverCodecs = reply != null && reply.startsWith("OK?") ? List.of(reply.substring(3).split(",")) : List.of();
+        }
+        return serverCodecs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,13 @@
+import java.io.IOException;
+
+/**
+ * The server answered a request with an {@code ERROR: ...} line. The message is that line,
+ * so callers can show it as is; any other {@link IOException} means the connection failed.
+ */
+public class ServerError extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ServerError(String reply) {
+        super(reply);
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters for the {@code stats} command and the periodic metrics dump. Everything
+ * on the request path is a {@link LongAdder} or an atomic array slot, so recording never
+ * takes a lock. Per command we keep requests, errors (an {@code ERROR} reply or a failed
+ * handler), requests running now, a latency histogram and the file bytes moved in and out.
+ */
+public class ServerMetrics {
+    /** Client connections open right now, on either engine. */
+    static final AtomicInteger activeConnections = new AtomicInteger();
+
+    private static final Map<String, CommandStats> commands = new ConcurrentSkipListMap<>();
+    private static final long startedAt = System.currentTimeMillis();
+    private static volatile long bytesPerSecond;
+
+    private ServerMetrics() {
+    }
+
+    /** Counters for one command. */
+    static class CommandStats implements Transfers.Meter {
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final AtomicInteger active = new AtomicInteger();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        @Override
+        public void sent(long bytes) {
+            bytesOut.add(bytes);
+        }
+
+        @Override
+        public void received(long bytes) {
+            bytesIn.add(bytes);
+        }
+
+        String format(String command) {
+            return command + "?requests=" + requests.sum() + "?errors=" + errors.sum() + "?active=" + active.get()
+                    + "?p50us=" + latency.percentile(0.50) + "?p99us=" + latency.percentile(0.99)
+                    + "?p999us=" + latency.percentile(0.999) + "?maxus=" + latency.max()
+                    + "?in=" + bytesIn.sum() + "?out=" + bytesOut.sum();
+        }
+    }
+
+    /**
+     * One running request. Its transfers are metered on this thread until {@link #end()},
+     * and {@link #session()} watches the reply for an {@code ERROR} line.
+     */
+    static class Call {
+        private final CommandStats stats;
+        private final long started = System.nanoTime();
+        private final WatchedSession session;
+        private boolean failed;
+
+        private Call(CommandStats stats, Session session) {
+            this.stats = stats;
+            this.session = new WatchedSession(session);
+        }
+
+        Session session() {
+            return session;
+        }
+
+        void fail() {
+            failed = true;
+        }
+
+        void end() {
+            Transfers.meter(null);
+            stats.latency.record((System.nanoTime() - started) / 1000);
+            if (failed || session.reply.error) {
+                stats.errors.increment();
+            }
+            stats.active.decrementAndGet();
+        }
+    }
+
+    static Call start(String command, Session session) {
+        CommandStats stats = commands.computeIfAbsent(command, name -> new CommandStats());
+        stats.requests.increment();
+        stats.active.incrementAndGet();
+        Transfers.meter(stats);
+        return new Call(stats, session);
+    }
+
+    /** The {@code stats} reply after its {@code OK?<lines>} header: a server line, then one per command. */
+    static List<String> snapshot() {
+        List<String> lines = new ArrayList<>();
+        long inFlight = 0;
+        for (CommandStats stats : commands.values()) {
+            inFlight += stats.active.get();
+        }
+        lines.add("server?connections=" + activeConnections.get() + "?inflight=" + inFlight
+                + "?throughput=" + bytesPerSecond + "?uptime=" + (System.currentTimeMillis() - startedAt) / 1000
+                + "?droppedlogs=" + Log.dropped());
+        lines.add(Server.scheduler.stats());
+        if (Server.fileCache != null) {
+            lines.add("cache?" + Server.fileCache.stats());
+        }
+        for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+            lines.add(entry.getValue().format(entry.getKey()));
+        }
+        return lines;
+    }
+
+    /**
+     * Starts the background sampler: it measures transfer throughput every second and,
+     * when {@code dumpSeconds} is positive, appends a snapshot to {@code dumpFile} that
+     * often, each line prefixed with the time in epoch milliseconds.
+     */
+    static void startSampler(int dumpSeconds, String dumpFile) {
+        Thread.ofPlatform().name("metrics").daemon(true).start(() -> {
+            long lastBytes = totalBytes();
+            long lastTime = System.nanoTime();
+            long ticks = 0;
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long bytes = totalBytes();
+                long now = System.nanoTime();
+                bytesPerSecond = (bytes - lastBytes) * 1_000_000_000L / Math.max(now - lastTime, 1);
+                lastBytes = bytes;
+                lastTime = now;
+                if (dumpSeconds > 0 && ++ticks % dumpSeconds == 0) {
+                    dump(dumpFile);
+                }
+            }
+        });
+    }
+
+    private static long totalBytes() {
+        long bytes = 0;
+        for (CommandStats stats : commands.values()) {
+            bytes += stats.bytesIn.sum() + stats.bytesOut.sum();
+        }
+        return bytes;
+    }
+
+    private static void dump(String dumpFile) {
+        String prefix = System.currentTimeMillis() + "?";
+        StringBuilder text = new StringBuilder();
+        for (String line : snapshot()) {
+            text.append(prefix).append(line).append('\n');
+        }
+        try (Writer out = new FileWriter(dumpFile, true)) {
+            out.write(text.toString());
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + dumpFile + ": " + e.getMessage());
+        }
+    }
+
+    // Passes everything through to the real session, noting whether the reply starts with ERROR.
+    private static class WatchedSession implements Session {
+        private final Session session;
+        private final ReplyWatch reply;
+
+        WatchedSession(Session session) {
+            this.session = session;
+            this.reply = new ReplyWatch(session.output());
+        }
+
+        @Override
+        public InputStream input() {
+            return session.input();
+        }
+
+        @Override
+        public OutputStream output() {
+            return reply;
+        }
+
+        @Override
+        public String remoteAddress() {
+            return session.remoteAddress();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return session.isOpen();
+        }
+
+        @Override
+        public void close() {
+            session.close();
+        }
+
+        @Override
+        public SocketChannel channel() {
+            return session.channel();
+        }
+
+        @Override
+        public Session connection() {
+            return session.connection();
+        }
+    }
+
+    private static class ReplyWatch extends OutputStream {
+        private static final byte[] ERROR = "ERROR".getBytes();
+        private final OutputStream out;
+        // How much of "ERROR" the reply has matched so far; only its first bytes are looked at
+        private int matched;
+        private boolean decided;
+        private boolean error;
+
+        ReplyWatch(OutputStream out) {
+            this.out = out;
+        }
+
+        private void check(byte b) {
+            if (b != ERROR[matched]) {
+                decided = true;
+            } else if (++matched == ERROR.length) {
+                decided = true;
+                error = true;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!decided) {
+                check((byte) b);
+            }
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = 0; i < len && !decided; i++) {
+                check(b[off + i]);
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
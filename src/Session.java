@@ -0,0 +1,33 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+
+/**
+ * What a command handler sees of a client connection. Handlers only need a stream to
+ * read request bodies from and one to write replies to, so the same handlers serve the
+ * blocking socket engine and the NIO selector engine.
+ */
+public interface Session {
+    InputStream input();
+
+    OutputStream output();
+
+    String remoteAddress();
+
+    boolean isOpen();
+
+    void close();
+
+    /**
+     * The blocking channel under this session, for zero-copy transfers, or {@code null}
+     * when bytes have to go through {@link #input()} and {@link #output()}.
+     */
+    default SocketChannel channel() {
+        return null;
+    }
+
+    /** The session of the whole connection; framed requests answer with the one they arrived on. */
+    default Session connection() {
+        return this;
+    }
+}
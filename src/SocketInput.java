@@ -0,0 +1,116 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered socket input that can say how many bytes it has already pulled off the wire.
+ * Before handing the raw channel to {@code transferFrom}, those bytes have to be drained
+ * through the stream or they would be lost.
+ * <p>
+ * Unlike {@link java.io.BufferedInputStream} this takes no monitor while it blocks in a
+ * read, so a virtual thread waiting for client data does not pin its carrier thread.
+ * Each connection has a single reader, so no locking is needed.
+ */
+public class SocketInput extends InputStream implements LineInput {
+    private final InputStream in;
+    private final byte[] buf = new byte[8192];
+    private int pos;
+    private int count;
+
+    public SocketInput(InputStream in) {
+        this.in = in;
+    }
+
+    public int buffered() {
+        return count - pos;
+    }
+
+    private boolean fill() throws IOException {
+        pos = 0;
+        count = 0;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        count = n;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos >= count && !fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int available = count - pos;
+        if (available > 0) {
+            int n = Math.min(available, len);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        // Large reads skip the buffer instead of copying through it
+        if (len >= buf.length) {
+            return in.read(b, off, len);
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(count, len);
+        System.arraycopy(buf, 0, b, off, n);
+        pos = n;
+        return n;
+    }
+
+    /** Scans the buffer for the line end rather than reading byte by byte. */
+    @Override
+    public String readLine() throws IOException {
+        ByteArrayOutputStream partial = null;
+        while (true) {
+            if (pos >= count && !fill()) {
+                return partial != null && partial.size() > 0 ? stripCr(partial.toString(StandardCharsets.UTF_8)) : null;
+            }
+            for (int i = pos; i < count; i++) {
+                if (buf[i] == '\n') {
+                    String line;
+                    if (partial == null) {
+                        line = new String(buf, pos, i - pos, StandardCharsets.UTF_8);
+                    } else {
+                        partial.write(buf, pos, i - pos);
+                        line = partial.toString(StandardCharsets.UTF_8);
+                    }
+                    pos = i + 1;
+                    return stripCr(line);
+                }
+            }
+            // The line continues past what is buffered
+            if (partial == null) {
+                partial = new ByteArrayOutputStream(2 * (count - pos));
+            }
+            partial.write(buf, pos, count - pos);
+            pos = count;
+        }
+    }
+
+    static String stripCr(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (count - pos) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
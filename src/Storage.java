@@ -0,0 +1,75 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where the server keeps its files: one or more root directories, ideally on different
+ * disks, with each file name assigned to a root by a {@link HashRing}. Handlers ask for a
+ * file by name instead of building paths under {@code ServerFiles}. The first root also
+ * holds {@code .store} for the {@link ChunkStore} and {@code .index} for the checksum index.
+ * <p>
+ * Lookups go straight to the root the ring picks. Files that a scan at startup finds in
+ * another root, placed there before a root was added, stay where they are and are
+ * remembered, so adding a root never hides a file. A file's {@code .part} sits next to
+ * it, so publishing an upload is always a move within one file system.
+ */
+public class Storage {
+    private final List<Path> roots;
+    private final HashRing<Path> ring;
+    // Files found outside the root the ring gives them, by name
+    private final Map<String, Path> misplaced = new ConcurrentHashMap<>();
+
+    public Storage(List<Path> roots) throws IOException {
+        this.roots = List.copyOf(roots);
+        Map<String, Path> members = new LinkedHashMap<>();
+        for (Path root : this.roots) {
+            Files.createDirectories(root);
+            // Keyed by the configured path, so reordering the roots moves nothing
+            members.put(root.toString(), root);
+        }
+        this.ring = new HashRing<>(members);
+        if (this.roots.size() > 1) {
+            for (Path root : this.roots) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isRegularFile)) {
+                    for (Path path : stream) {
+                        String name = path.getFileName().toString();
+                        if (!ring.owner(name).equals(root)) {
+                            misplaced.put(name, root);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public List<Path> roots() {
+        return roots;
+    }
+
+    /** The first root, home of {@code .store} and {@code .index}. */
+    public Path primary() {
+        return roots.get(0);
+    }
+
+    /** The file for {@code name}: where the ring puts it, unless the startup scan found it elsewhere. */
+    public File file(String name) {
+        Path root = misplaced.get(name);
+        if (root != null && !Files.exists(root.resolve(name))) {
+            // Deleted or renamed since: the name follows the ring from now on
+            misplaced.remove(name, root);
+            root = null;
+        }
+        return (root != null ? root : ring.owner(name)).resolve(name).toFile();
+    }
+
+    /** The root {@code name} is stored in, or would be. */
+    public File folder(String name) {
+        return file(name).getParentFile();
+    }
+}
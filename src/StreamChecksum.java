@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * A checksum kept up to date as transfer bytes stream past, so verifying a file never
+ * means reading it a second time. {@code crc32c} is nearly free and catches corruption;
+ * {@code sha256} also identifies content. Bodies are followed by a
+ * {@code CHECKSUM?algorithm?hex} trailer line that the receiving side compares with its own.
+ */
+public class StreamChecksum {
+    public static final String SHA256 = "sha256";
+    public static final String CRC32C = "crc32c";
+
+    private final String algorithm;
+    private final MessageDigest digest;
+    private final CRC32C crc;
+    private String value;
+
+    private StreamChecksum(String algorithm) {
+        this.algorithm = algorithm;
+        this.digest = algorithm.equals(SHA256) ? DeltaSync.sha256() : null;
+        this.crc = algorithm.equals(CRC32C) ? new CRC32C() : null;
+    }
+
+    /** A fresh checksum, or {@code null} for {@code none} and unknown names. */
+    public static StreamChecksum create(String algorithm) {
+        return algorithm != null && names().contains(algorithm) ? new StreamChecksum(algorithm) : null;
+    }
+
+    /**
+     * {@code algorithm:hex} of the first {@code length} bytes of {@code source}, or {@code null}
+     * for an unknown algorithm or a source shorter than {@code length}. A resumed transfer sends
+     * this for the bytes it already holds, so it never continues a different version of the file.
+     */
+    public static String ofPrefix(String algorithm, Transfers.PositionalReader source, long length) throws IOException {
+        StreamChecksum checksum = create(algorithm);
+        if (checksum == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Transfers.bufferSize(), Math.max(length, 1)));
+        long read = 0;
+        while (read < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - read));
+            int n = source.read(buffer, read);
+            if (n == -1) {
+                return null;
+            }
+            checksum.update(buffer.array(), 0, n);
+            read += n;
+        }
+        return algorithm + ":" + checksum.value();
+    }
+
+    /** Whether {@code token}, made by {@link #ofPrefix}, describes the first {@code length} bytes of {@code source}. */
+    public static boolean matchesPrefix(String token, Transfers.PositionalReader source, long length) throws IOException {
+        int colon = token.indexOf(':');
+        return colon > 0 && token.equals(ofPrefix(token.substring(0, colon), source, length));
+    }
+
+    public static List<String> names() {
+        return List.of(SHA256, CRC32C);
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    public void update(byte[] data, int off, int len) {
+        if (digest != null) {
+            digest.update(data, off, len);
+        } else {
+            crc.update(data, off, len);
+        }
+    }
+
+    /** Consumes the remaining bytes of {@code data}; direct and mapped buffers are read in place. */
+    public void update(ByteBuffer data) {
+        if (digest != null) {
+            digest.update(data);
+        } else {
+            crc.update(data);
+        }
+    }
+
+    /** The checksum of all the bytes, as lowercase hex; call once the body is complete. */
+    public String value() {
+        if (value == null) {
+            value = digest != null ? HexFormat.of().formatHex(digest.digest()) : String.format("%08x", crc.getValue());
+        }
+        return value;
+    }
+
+    /** The trailer line that follows a body: {@code CHECKSUM?algorithm?hex}. */
+    public String trailer() {
+        return "CHECKSUM?" + algorithm + "?" + value() + "\n";
+    }
+
+    /** Compares a received trailer with this checksum; returns {@code null} if they agree, otherwise why not. */
+    public String verify(String trailer) {
+        if (trailer == null) {
+            return "Connection closed before the checksum trailer";
+        }
+        String expected = trailer.endsWith("\n") ? trailer : trailer + "\n";
+        String actual = trailer();
+        return actual.equals(expected) ? null
+                : "Checksum mismatch: received " + actual.trim() + ", sender reported " + trailer.trim();
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares the server's bandwidth between clients. Bulk requests (large downloads and
+ * uploads, bundles, deltas) wait in a first-come queue for one of a fixed number of slots,
+ * and their transfers are paced by token buckets: one for the whole server and one per
+ * connection. Metadata commands and small transfers take the priority lane, which skips
+ * both the queue and the pacing, so a listing never waits behind a multi-GB download.
+ */
+public class TransferScheduler {
+    /** Largest chunk a paced transfer moves before it is charged, so pacing stays smooth. */
+    static final int QUANTUM = 256 * 1024;
+    private static final Set<String> BULK_COMMANDS = Set.of("download", "upload", "mget", "mput", "chunkput",
+            "deltasig", "deltaput");
+
+    private final long rateLimit;
+    private final long connectionRateLimit;
+    private final int bulkLimit;
+    private final long prioritySize;
+    private final TokenBucket global;
+    private final Semaphore bulkSlots;
+    private final Map<Session, TokenBucket> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger bulkActive = new AtomicInteger();
+    private final AtomicInteger bulkQueued = new AtomicInteger();
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder priorityRequests = new LongAdder();
+    private final LongAdder queuedNanos = new LongAdder();
+    private final LongAdder globalWaitNanos = new LongAdder();
+    private final LongAdder connectionWaitNanos = new LongAdder();
+
+    /**
+     * Rates are in bytes per second and {@code bulkLimit} counts concurrent bulk requests;
+     * 0 turns the limit off. Transfers of at most {@code prioritySize} bytes count as small.
+     */
+    public TransferScheduler(long rateLimit, long connectionRateLimit, int bulkLimit, long prioritySize) {
+        this.rateLimit = rateLimit;
+        this.connectionRateLimit = connectionRateLimit;
+        this.bulkLimit = bulkLimit;
+        this.prioritySize = prioritySize;
+        this.global = rateLimit > 0 ? new TokenBucket(rateLimit) : null;
+        // Fair, so queued requests get their slot in arrival order
+        this.bulkSlots = bulkLimit > 0 ? new Semaphore(bulkLimit, true) : null;
+    }
+
+    /**
+     * A token bucket that lends: a caller takes its bytes at once and then sleeps off any
+     * debt. Each later caller finds the debt deeper and sleeps longer, so concurrent
+     * transfers are served in turn and share the rate evenly.
+     */
+    static final class TokenBucket {
+        private final long rate;
+        private final long burst;
+        private final ReentrantLock lock = new ReentrantLock();
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            // A tenth of a second of credit, but never less than one chunk
+            this.burst = Math.max(QUANTUM, rate / 10);
+            this.tokens = burst;
+        }
+
+        /** Takes {@code bytes} and returns how long to wait, in nanoseconds, before using them. */
+        long take(long bytes) {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - refilledAt) * (double) rate / 1_000_000_000L);
+                refilledAt = now;
+                tokens -= bytes;
+                return tokens >= 0 ? 0 : (long) (-tokens * 1_000_000_000L / rate);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** One admitted request; {@link #end()} gives back its bulk slot and stops pacing this thread. */
+    final class Admission {
+        private final boolean bulk;
+
+        private Admission(boolean bulk) {
+            this.bulk = bulk;
+        }
+
+        void end() {
+            if (!bulk) {
+                return;
+            }
+            Transfers.pacer(null);
+            bulkActive.decrementAndGet();
+            if (bulkSlots != null) {
+                bulkSlots.release();
+            }
+        }
+    }
+
+    /**
+     * Puts a request in its lane. A bulk request may wait here for a slot, and its transfers
+     * are then paced on this thread until {@link Admission#end()}.
+     */
+    Admission admit(String command, String args, Session session) {
+        if (!isBulk(command, args)) {
+            priorityRequests.increment();
+            return new Admission(false);
+        }
+        bulkRequests.increment();
+        if (bulkSlots != null) {
+            long queuedAt = System.nanoTime();
+            bulkQueued.incrementAndGet();
+            bulkSlots.acquireUninterruptibly();
+            bulkQueued.decrementAndGet();
+            queuedNanos.add(System.nanoTime() - queuedAt);
+        }
+        bulkActive.incrementAndGet();
+        TokenBucket connection = connectionRateLimit > 0
+                ? connections.computeIfAbsent(session.connection(), s -> new TokenBucket(connectionRateLimit))
+                : null;
+        if (global != null || connection != null) {
+            Transfers.pacer(bytes -> pace(connection, bytes));
+        }
+        return new Admission(true);
+    }
+
+    /** Forgets a closed connection's bucket. */
+    void disconnected(Session connection) {
+        connections.remove(connection);
+    }
+
+    private void pace(TokenBucket connection, long bytes) throws IOException {
+        long globalWait = global != null ? global.take(bytes) : 0;
+        long connectionWait = connection != null ? connection.take(bytes) : 0;
+        globalWaitNanos.add(globalWait);
+        connectionWaitNanos.add(connectionWait);
+        long wait = Math.max(globalWait, connectionWait);
+        if (wait > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(wait));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while paced");
+            }
+        }
+    }
+
+    // Metadata commands are never bulk; transfers are bulk unless their size shows they are small.
+    private boolean isBulk(String command, String argsString) {
+        if (!BULK_COMMANDS.contains(command)) {
+            return false;
+        }
+        CommandArgs args = CommandArgs.parse(argsString);
+        try {
+            switch (command) {
+                case "download" -> {
+                    // An explicit length bounds the range; otherwise it runs to the end of the file
+                    long length = args.count() > 2 ? args.getLong(2, 0) : listedSize(args.get(0)) - args.getLong(1, 0);
+                    return length > prioritySize;
+                }
+                case "deltasig" -> {
+                    return listedSize(args.get(0)) > prioritySize;
+                }
+                case "upload" -> {
+                    long size = args.getLong(1, 0);
+                    long offset = args.getLong(2, 0);
+                    return args.getLong(3, size - offset) > prioritySize;
+                }
+                default -> {
+                    return true;
+                }
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // The handler will reject it without moving any data
+            return false;
+        }
+    }
+
+    // Unknown sizes count as large
+    private static long listedSize(String name) {
+        DirectoryIndex.Entry entry = Server.listing != null ? Server.listing.get(name) : null;
+        return entry != null ? entry.size() : Long.MAX_VALUE;
+    }
+
+    /** One {@code stats} line describing the lanes, limits and how long requests waited. */
+    String stats() {
+        return "scheduler?bulkactive=" + bulkActive.get() + "?bulkqueued=" + bulkQueued.get() + "?bulklimit=" + bulkLimit
+                + "?bulk=" + bulkRequests.sum() + "?priority=" + priorityRequests.sum()
+                + "?queuedms=" + queuedNanos.sum() / 1_000_000
+                + "?ratelimit=" + rateLimit + "?ratewaitms=" + globalWaitNanos.sum() / 1_000_000
+                + "?connectionratelimit=" + connectionRateLimit + "?connectionwaitms=" + connectionWaitNanos.sum() / 1_000_000
+                + "?pacedconnections=" + connections.size();
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.IOException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * File-to-socket and socket-to-file copies shared by the client and the server. When a
+ * blocking {@link SocketChannel} is available the bytes move with
+ * {@link FileChannel#transferTo}/{@link FileChannel#transferFrom} and never pass through
+ * the heap; otherwise they go through a buffered copy of {@link #bufferSize()} bytes.
+ * A {@link StreamChecksum} has to see the bytes, so passing one takes the buffered path.
+ */
+public class Transfers {
+    /** Anything readable at an absolute position, such as {@link FileChannel#read(ByteBuffer, long)}. */
+    public interface PositionalReader {
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+
+    /** Told about every chunk a thread moves while it is installed, e.g. for per-command byte counts. */
+    public interface Meter {
+        void sent(long bytes);
+
+        void received(long bytes);
+    }
+
+    /** Told about every chunk a thread moves while it is installed, after it moved; may sleep to hold a rate. */
+    public interface Pacer {
+        void pace(long bytes) throws IOException;
+    }
+
+    /**
+     * Largest block {@link #sendEncoded} cuts, whatever the buffer size. The receiver refuses
+     * bigger headers, and the limit is fixed because the two ends may configure different buffers.
+     */
+    public static final int MAX_ENCODED_BLOCK = 4 * 1024 * 1024;
+
+    private static volatile int bufferSize = 64 * 1024;
+    private static volatile boolean zeroCopy = true;
+    private static final ThreadLocal<Meter> meter = new ThreadLocal<>();
+    private static final ThreadLocal<Pacer> pacer = new ThreadLocal<>();
+
+    public static int bufferSize() {
+        return bufferSize;
+    }
+
+    public static void configure(int newBufferSize, boolean useZeroCopy) {
+        if (newBufferSize < 512) {
+            throw new IllegalArgumentException("buffer size must be at least 512 bytes");
+        }
+        bufferSize = newBufferSize;
+        zeroCopy = useZeroCopy;
+    }
+
+    /** Installs {@code newMeter} for transfers on the calling thread; {@code null} removes it. */
+    public static void meter(Meter newMeter) {
+        if (newMeter == null) {
+            meter.remove();
+        } else {
+            meter.set(newMeter);
+        }
+    }
+
+    /** Installs {@code newPacer} for transfers on the calling thread; {@code null} removes it. */
+    public static void pacer(Pacer newPacer) {
+        if (newPacer == null) {
+            pacer.remove();
+        } else {
+            pacer.set(newPacer);
+        }
+    }
+
+    // A paced zero-copy call moves one quantum at a time, so it can be charged as it goes
+    private static long chunkLimit() {
+        return pacer.get() == null ? Long.MAX_VALUE : TransferScheduler.QUANTUM;
+    }
+
+    private static void countSent(long bytes) throws IOException {
+        Meter current = meter.get();
+        if (current != null) {
+            current.sent(bytes);
+        }
+        Pacer currentPacer = pacer.get();
+        if (currentPacer != null) {
+            currentPacer.pace(bytes);
+        }
+    }
+
+    private static void countReceived(long bytes) throws IOException {
+        Meter current = meter.get();
+        if (current != null) {
+            current.received(bytes);
+        }
+        Pacer currentPacer = pacer.get();
+        if (currentPacer != null) {
+            currentPacer.pace(bytes);
+        }
+    }
+
+    /** Sends {@code count} bytes of {@code file} starting at {@code position}. */
+    public static void send(FileChannel file, long position, long count, OutputStream out, SocketChannel channel) throws IOException {
+        send(file, position, count, out, channel, null);
+    }
+
+    /**
+     * Sends {@code count} bytes of {@code file} starting at {@code position}, adding them to
+     * {@code checksum} unless it is {@code null}. A checksum needs to see the bytes, so it
+     * turns off the zero-copy path.
+     */
+    public static void send(FileChannel file, long position, long count, OutputStream out, SocketChannel channel,
+                            StreamChecksum checksum) throws IOException {
+        if (checksum != null) {
+            send(file::read, position, count, out, checksum);
+            return;
+        }
+        if (zeroCopy && channel != null && channel.isBlocking()) {
+            // Anything already written through the stream must go out before the raw channel
+            out.flush();
+            long sent = 0;
+            while (sent < count) {
+                long n = file.transferTo(position + sent, Math.min(count - sent, chunkLimit()), channel);
+                if (n <= 0 && position + sent >= file.size()) {
+                    throw new IOException("File shrank during transfer after " + sent + " of " + count + " bytes");
+                }
+                sent += n;
+                countSent(n);
+            }
+            return;
+        }
+        send(file::read, position, count, out, null);
+    }
+
+    /** Copies {@code count} bytes of {@code source} to {@code out} through the heap, adding them to {@code checksum} if given. */
+    public static void send(PositionalReader source, long position, long count, OutputStream out, StreamChecksum checksum) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(bufferSize, Math.max(count, 1)));
+        long sent = 0;
+        while (sent < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - sent));
+            int n = source.read(buffer, position + sent);
+            if (n == -1) {
+                throw new IOException("File shrank during transfer after " + sent + " of " + count + " bytes");
+            }
+            if (checksum != null) {
+                checksum.update(buffer.array(), 0, n);
+            }
+            out.write(buffer.array(), 0, n);
+            sent += n;
+            countSent(n);
+        }
+        out.flush();
+    }
+
+    /** Sends {@code count} bytes of an in-memory {@code data} buffer starting at {@code position}. */
+    public static void send(ByteBuffer data, long position, long count, OutputStream out, SocketChannel channel) throws IOException {
+        send(data, position, count, out, channel, null);
+    }
+
+    /** As above, adding the bytes to {@code checksum} if given; the buffer is read in place, so zero-copy still applies. */
+    public static void send(ByteBuffer data, long position, long count, OutputStream out, SocketChannel channel,
+                            StreamChecksum checksum) throws IOException {
+        ByteBuffer slice = data.slice((int) position, (int) count);
+        if (checksum != null) {
+            checksum.update(slice.duplicate());
+        }
+        if (zeroCopy && channel != null && channel.isBlocking()) {
+            // A direct or mapped buffer goes to the socket without a copy onto the heap
+            out.flush();
+            long limit = chunkLimit();
+            while (slice.hasRemaining()) {
+                ByteBuffer chunk = slice.slice(slice.position(), (int) Math.min(slice.remaining(), limit));
+                int n = channel.write(chunk);
+                slice.position(slice.position() + n);
+                countSent(n);
+            }
+            return;
+        }
+        byte[] buffer = new byte[(int) Math.min(bufferSize, Math.max(count, 1))];
+        while (slice.hasRemaining()) {
+            int n = Math.min(buffer.length, slice.remaining());
+            slice.get(buffer, 0, n);
+            out.write(buffer, 0, n);
+            countSent(n);
+        }
+        out.flush();
+    }
+
+    /** Receives exactly {@code count} bytes into {@code file} at {@code position}. */
+    public static void receive(InputStream in, SocketChannel channel, FileChannel file, long position, long count) throws IOException {
+        receive(in, channel, file, position, count, null);
+    }
+
+    /** As above, adding the bytes to {@code checksum} if given, which turns off the zero-copy path. */
+    public static void receive(InputStream in, SocketChannel channel, FileChannel file, long position, long count,
+                               StreamChecksum checksum) throws IOException {
+        long received = 0;
+        if (checksum == null && zeroCopy && channel != null && channel.isBlocking() && in instanceof SocketInput socketInput) {
+            // Bytes the stream already buffered past the command line belong to this file
+            int buffered = (int) Math.min(socketInput.buffered(), count);
+            if (buffered > 0) {
+                byte[] head = new byte[buffered];
+                int n = socketInput.read(head, 0, buffered);
+                writeFully(file, ByteBuffer.wrap(head, 0, n), position);
+                received += n;
+                countReceived(n);
+            }
+            while (received < count) {
+                long n = file.transferFrom(channel, position + received, Math.min(count - received, chunkLimit()));
+                if (n == 0) {
+                    // transferFrom reports end of stream as 0; confirm with a real read
+                    ByteBuffer probe = ByteBuffer.allocate(1);
+                    if (channel.read(probe) == -1) {
+                        throw new IOException("Unexpected end of stream. Expected " + count + " bytes, got " + received);
+                    }
+                    probe.flip();
+                    writeFully(file, probe, position + received);
+                    n = 1;
+                }
+                received += n;
+                countReceived(n);
+            }
+            return;
+        }
+        byte[] buffer = new byte[(int) Math.min(bufferSize, Math.max(count, 1))];
+        while (received < count) {
+            int toRead = (int) Math.min(buffer.length, count - received);
+            int n = in.read(buffer, 0, toRead);
+            if (n == -1) {
+                throw new IOException("Unexpected end of stream. Expected " + count + " bytes, got " + received);
+            }
+            if (checksum != null) {
+                checksum.update(buffer, 0, n);
+            }
+            writeFully(file, ByteBuffer.wrap(buffer, 0, n), position + received);
+            received += n;
+            countReceived(n);
+        }
+    }
+
+    /**
+     * Sends {@code count} bytes of {@code file} as {@link Codec} blocks, each carrying its
+     * compressed and original length, followed by an empty block.
+     */
+    public static void sendEncoded(PositionalReader file, long position, long count, OutputStream out, Codec codec, int level) throws IOException {
+        sendEncoded(file, position, count, out, codec, level, null);
+    }
+
+    /** As above, adding the original bytes to {@code checksum} if given. */
+    public static void sendEncoded(PositionalReader file, long position, long count, OutputStream out, Codec codec, int level,
+                                   StreamChecksum checksum) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        try (Codec.Compressor compressor = codec.compressor(level)) {
+            byte[] plain = new byte[(int) Math.min(Math.min(bufferSize, MAX_ENCODED_BLOCK), Math.max(count, 1))];
+            byte[] packed = new byte[compressor.maxCompressedLength(plain.length)];
+            long sent = 0;
+            while (sent < count) {
+                ByteBuffer buffer = ByteBuffer.wrap(plain, 0, (int) Math.min(plain.length, count - sent));
+                while (buffer.hasRemaining()) {
+                    if (file.read(buffer, position + sent + buffer.position()) == -1) {
+                        throw new IOException("File shrank during transfer after " + (sent + buffer.position()) + " of " + count + " bytes");
+                    }
+                }
+                int n = buffer.position();
+                if (checksum != null) {
+                    checksum.update(plain, 0, n);
+                }
+                int packedLength = compressor.compress(plain, 0, n, packed);
+                data.writeInt(packedLength);
+                data.writeInt(n);
+                data.write(packed, 0, packedLength);
+                sent += n;
+                countSent(8 + packedLength);
+            }
+        }
+        data.writeInt(0);
+        data.writeInt(0);
+        data.flush();
+    }
+
+    /**
+     * Receives a body written by {@link #sendEncoded} into {@code file} at {@code position}.
+     * Returns the number of compressed bytes that crossed the wire.
+     */
+    public static long receiveEncoded(InputStream in, FileChannel file, long position, long count, Codec codec) throws IOException {
+        return receiveEncoded(in, file, position, count, codec, null);
+    }
+
+    /** As above, adding the decompressed bytes to {@code checksum} if given. */
+    public static long receiveEncoded(InputStream in, FileChannel file, long position, long count, Codec codec,
+                                      StreamChecksum checksum) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        long received = 0;
+        long wireBytes = 0;
+        byte[] packed = new byte[0];
+        byte[] plain = new byte[0];
+        try (Codec.Decompressor decompressor = codec.decompressor()) {
+            while (true) {
+                int packedLength = data.readInt();
+                int originalLength = data.readInt();
+                if (packedLength == 0 && originalLength == 0) {
+                    break;
+                }
+                // Checked before anything is allocated, since both lengths come from the peer
+                if (packedLength < 0 || originalLength < 0 || received + originalLength > count
+                        || originalLength > MAX_ENCODED_BLOCK || packedLength > decompressor.maxCompressedLength(originalLength)) {
+                    throw new IOException("Bad block header " + packedLength + "/" + originalLength + " after " + received + " of " + count + " bytes");
+                }
+                if (packed.length < packedLength) {
+                    packed = new byte[packedLength];
+                }
+                if (plain.length < originalLength) {
+                    plain = new byte[originalLength];
+                }
+                data.readFully(packed, 0, packedLength);
+                decompressor.decompress(packed, 0, packedLength, plain, originalLength);
+                if (checksum != null) {
+                    checksum.update(plain, 0, originalLength);
+                }
+                writeFully(file, ByteBuffer.wrap(plain, 0, originalLength), position + received);
+                received += originalLength;
+                wireBytes += 8 + packedLength;
+                countReceived(8 + packedLength);
+            }
+        }
+        if (received != count) {
+            throw new IOException("Compressed body ended after " + received + " of " + count + " bytes");
+        }
+        return wireBytes + 8;
+    }
+
+    static void writeFully(FileChannel file, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += file.write(src, position);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class BytePipeTest {
+    @Test
+    void bytesComeOutInOrderAcrossWrapAndGrowth() throws IOException {
+        BytePipe pipe = new BytePipe(16, 1024);
+        byte[] data = new byte[1000];
+        new Random(7).nextBytes(data);
+        byte[] out = new byte[data.length];
+        int written = 0;
+        int read = 0;
+        // Interleave uneven writes and reads so the ring wraps and grows
+        while (read < data.length) {
+            int n = Math.min(37, data.length - written);
+            if (n > 0) {
+                pipe.write(data, written, n);
+                written += n;
+            }
+            int r = pipe.inputStream().read(out, read, Math.min(23, data.length - read));
+            read += r;
+        }
+        assertArrayEquals(data, out);
+        assertEquals(0, pipe.available());
+    }
+
+    @Test
+    void linesAndEndOfStream() throws IOException {
+        BytePipe pipe = new BytePipe(8, 1024);
+        pipe.write("list?sort=name\npart".getBytes(StandardCharsets.UTF_8), 0, 19);
+        assertTrue(pipe.hasLine());
+        assertEquals("list?sort=name", pipe.readLine());
+        assertFalse(pipe.hasLine());
+        pipe.closeWrite();
+        assertTrue(pipe.hasLine());
+        assertEquals("part", pipe.readLine());
+        assertNull(pipe.readLine());
+        assertEquals(-1, pipe.inputStream().read());
+        assertTrue(pipe.isFinished());
+    }
+
+    @Test
+    void highWaterMarkAndDiscard() throws IOException {
+        BytePipe pipe = new BytePipe(8, 10);
+        pipe.write(new byte[12], 0, 12);
+        assertTrue(pipe.isFull());
+        pipe.discard();
+        assertFalse(pipe.isFull());
+        pipe.write(new byte[5], 0, 5);
+        assertEquals(0, pipe.available());
+        assertEquals(-1, pipe.inputStream().read());
+    }
+}
@@ -0,0 +1,43 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChecksumIndexTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void recordsSurviveAReload() throws IOException {
+        Path journal = folder.resolve("checksums");
+        ChecksumIndex index = new ChecksumIndex(journal);
+        index.put("a.txt", 10, 1000, StreamChecksum.CRC32C, "0000000a");
+        index.put("a.txt", 10, 1000, StreamChecksum.SHA256, "ab");
+        index.put("b.txt", 20, 2000, StreamChecksum.CRC32C, "0000000b");
+        ChecksumIndex reloaded = new ChecksumIndex(journal);
+        assertEquals("0000000a", reloaded.get("a.txt", 10, 1000, StreamChecksum.CRC32C));
+        assertEquals("ab", reloaded.get("a.txt", 10, 1000, StreamChecksum.SHA256));
+        assertNull(reloaded.get("b.txt", 20, 2001, StreamChecksum.CRC32C));
+    }
+
+    @Test
+    void supersededLinesAreCompactedAway() throws IOException {
+        Path journal = folder.resolve("checksums");
+        ChecksumIndex index = new ChecksumIndex(journal);
+        for (int i = 0; i < 10_000; i++) {
+            index.put("busy.txt", i, i, StreamChecksum.CRC32C, String.format("%08x", i));
+        }
+        long lines;
+        try (Stream<String> stream = Files.lines(journal)) {
+            lines = stream.count();
+        }
+        assertTrue(lines <= 1024, lines + " journal lines for one file");
+        assertEquals("0000270f", new ChecksumIndex(journal).get("busy.txt", 9999, 9999, StreamChecksum.CRC32C));
+    }
+}
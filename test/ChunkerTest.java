@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ChunkerTest {
+    private static List<byte[]> chunks(byte[] data) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        long[] expectedOffset = {0};
+        Chunker.split(new ByteArrayInputStream(data), (chunk, length, offset) -> {
+            assertEquals(expectedOffset[0], offset);
+            expectedOffset[0] += length;
+            chunks.add(Arrays.copyOf(chunk, length));
+        });
+        return chunks;
+    }
+
+    @Test
+    void chunksRespectTheSizeLimitsAndReassemble() throws IOException {
+        byte[] data = new byte[4 * 1024 * 1024];
+        new Random(4).nextBytes(data);
+        List<byte[]> chunks = chunks(data);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            int length = chunks.get(i).length;
+            assertTrue(length <= Chunker.MAX_CHUNK);
+            if (i < chunks.size() - 1) {
+                assertTrue(length >= Chunker.MIN_CHUNK);
+            }
+            joined.write(chunks.get(i));
+        }
+        assertArrayEquals(data, joined.toByteArray());
+    }
+
+    @Test
+    void uniformDataIsCutAtTheMaximum() throws IOException {
+        List<byte[]> chunks = chunks(new byte[Chunker.MAX_CHUNK * 2 + 10]);
+        assertEquals(3, chunks.size());
+        assertEquals(Chunker.MAX_CHUNK, chunks.get(0).length);
+        assertEquals(10, chunks.get(2).length);
+    }
+
+    @Test
+    void anInsertionOnlyChangesNearbyChunks() throws IOException {
+        byte[] data = new byte[2 * 1024 * 1024];
+        new Random(5).nextBytes(data);
+        byte[] edited = new byte[data.length + 7];
+        System.arraycopy(data, 0, edited, 0, 1000);
+        System.arraycopy(data, 1000, edited, 1007, data.length - 1000);
+        List<String> before = chunks(data).stream().map(Arrays::toString).toList();
+        List<String> after = chunks(edited).stream().map(Arrays::toString).toList();
+        long shared = after.stream().filter(before::contains).count();
+        assertTrue(shared >= before.size() - 2, shared + " of " + before.size() + " chunks survived");
+    }
+
+    @Test
+    void emptyInputHasNoChunks() throws IOException {
+        assertEquals(0, chunks(new byte[0]).size());
+    }
+}
@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CodecsTest {
+    private static final Codec DEFLATE = Codecs.get("deflate");
+
+    // Compresses blocks one after another through one compressor, as a transfer does
+    private static void roundTrip(byte[][] blocks) throws IOException {
+        try (Codec.Compressor compressor = DEFLATE.compressor(Codecs.DEFAULT_LEVEL);
+             Codec.Decompressor decompressor = DEFLATE.decompressor()) {
+            for (byte[] block : blocks) {
+                byte[] compressed = new byte[compressor.maxCompressedLength(block.length)];
+                int n = compressor.compress(block, 0, block.length, compressed);
+                byte[] restored = new byte[block.length];
+                decompressor.decompress(compressed, 0, n, restored, block.length);
+                assertArrayEquals(block, restored);
+            }
+        }
+    }
+
+    @Test
+    void textBlocksRoundTripAndShrink() throws IOException {
+        byte[] text = "the quick brown fox jumps over the lazy dog\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        roundTrip(new byte[][] {text, text, Arrays.copyOf(text, 10)});
+        try (Codec.Compressor compressor = DEFLATE.compressor(Codecs.DEFAULT_LEVEL)) {
+            byte[] out = new byte[compressor.maxCompressedLength(text.length)];
+            assertTrue(compressor.compress(text, 0, text.length, out) < text.length / 10);
+        }
+    }
+
+    @Test
+    void randomBlocksRoundTrip() throws IOException {
+        byte[] random = new byte[64 * 1024];
+        new Random(6).nextBytes(random);
+        roundTrip(new byte[][] {random, random});
+    }
+
+    @Test
+    void randomDataFitsTheBoundAtLargeBlockSizes() throws IOException {
+        byte[] random = new byte[8 * 1024 * 1024];
+        new Random(8).nextBytes(random);
+        for (int level : new int[] {0, 1, Codecs.DEFAULT_LEVEL, 9}) {
+            try (Codec.Compressor compressor = DEFLATE.compressor(level);
+                 Codec.Decompressor decompressor = DEFLATE.decompressor()) {
+                for (int length : new int[] {1, 65535, 65536, 1024 * 1024 + 3, random.length}) {
+                    byte[] compressed = new byte[compressor.maxCompressedLength(length)];
+                    int n = compressor.compress(random, 0, length, compressed);
+                    byte[] restored = new byte[length];
+                    decompressor.decompress(compressed, 0, n, restored, length);
+                    assertArrayEquals(Arrays.copyOf(random, length), restored, "level " + level + ", " + length + " bytes");
+                }
+            }
+        }
+    }
+
+    @Test
+    void corruptBlocksAreRejected() {
+        byte[] garbage = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1, 2, 3};
+        try (Codec.Decompressor decompressor = DEFLATE.decompressor()) {
+            assertThrows(IOException.class, () -> decompressor.decompress(garbage, 0, garbage.length, new byte[100], 100));
+        }
+    }
+
+    @Test
+    void chooseTakesTheFirstSupportedOffer() {
+        assertEquals("deflate:9", Codecs.choose("zstd:3, deflate:9"));
+        assertNull(Codecs.choose("zstd"));
+        assertNull(Codecs.choose(null));
+        assertEquals(9, Codecs.levelOf("deflate:9"));
+        assertEquals(Codecs.DEFAULT_LEVEL, Codecs.levelOf("deflate"));
+    }
+
+    @Test
+    void compressedFormatsAreRecognized() {
+        assertFalse(Codecs.isCompressible("photo.JPG", new byte[0], 0));
+        assertFalse(Codecs.isCompressible("data", new byte[] {0x1F, (byte) 0x8B, 8, 0}, 4));
+        assertTrue(Codecs.isCompressible("notes.txt", "abcd".getBytes(StandardCharsets.UTF_8), 4));
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CommandArgsTest {
+    @Test
+    void positionalArgumentsThenOptions() {
+        CommandArgs args = CommandArgs.parse("report.txt?100?20?codec=deflate:6?verify=crc32c");
+        assertEquals(3, args.count());
+        assertEquals("report.txt", args.get(0));
+        assertEquals(100, args.getLong(1, 0));
+        assertEquals(20, args.getLong(2, 0));
+        assertEquals(7, args.getLong(3, 7));
+        assertEquals("deflate:6", args.option("codec"));
+        assertEquals("crc32c", args.option("verify"));
+        assertTrue(args.hasOptions());
+    }
+
+    @Test
+    void firstArgumentMayContainAnEqualsSign() {
+        CommandArgs args = CommandArgs.parse("a=b.txt?5");
+        assertEquals("a=b.txt", args.get(0));
+        assertNull(args.option("a"));
+    }
+
+    @Test
+    void parseOptionsTreatsEveryPairAsAnOption() {
+        CommandArgs args = CommandArgs.parseOptions("prefix=a?sort=size?limit=10");
+        assertEquals(0, args.count());
+        assertEquals("a", args.option("prefix"));
+        assertEquals("10", args.option("limit"));
+    }
+
+    @Test
+    void emptyAndTrailingSeparators() {
+        assertEquals(0, CommandArgs.parse("").count());
+        assertEquals(0, CommandArgs.parse(null).count());
+        assertFalse(CommandArgs.parseOptions("").hasOptions());
+        CommandArgs args = CommandArgs.parse("name??");
+        assertEquals(1, args.count());
+        assertEquals("", CommandArgs.parse("a??b").get(1));
+    }
+
+    @Test
+    void badNumbersThrow() {
+        CommandArgs args = CommandArgs.parse("name?abc");
+        assertThrows(NumberFormatException.class, () -> args.getLong(1, 0));
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DeltaSyncTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void blockSizeIsBoundedAndKibAligned() {
+        assertEquals(DeltaSync.MIN_BLOCK, DeltaSync.blockSize(0));
+        assertEquals(DeltaSync.MIN_BLOCK, DeltaSync.blockSize(1000));
+        assertEquals(DeltaSync.MAX_BLOCK, DeltaSync.blockSize(1L << 40));
+        int size = DeltaSync.blockSize(100L * 1024 * 1024);
+        assertEquals(0, size % 1024);
+        assertTrue(size >= 10 * 1024 && size <= 11 * 1024);
+    }
+
+    @Test
+    void rollingSumMatchesAFreshSum() {
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        int window = 512;
+        DeltaSync.Rolling rolling = new DeltaSync.Rolling();
+        rolling.reset(data, 0, window);
+        for (int k = 0; k + window < data.length; k++) {
+            rolling.roll(data[k], data[k + window]);
+            assertEquals(DeltaSync.weak(data, k + 1, window), rolling.value(), "at offset " + (k + 1));
+        }
+    }
+
+    @Test
+    void signaturesCoverWholeBlocksOnly() throws IOException {
+        byte[] base = new byte[3 * 2048 + 100];
+        new Random(2).nextBytes(base);
+        try (FileChannel channel = write("base", base)) {
+            List<DeltaSync.Signature> signatures = DeltaSync.signatures(channel, 2048);
+            assertEquals(3, signatures.size());
+            assertEquals(DeltaSync.weak(base, 2048, 2048), signatures.get(1).weak());
+        }
+    }
+
+    @Test
+    void rebuildsFromCopiesAndLiterals() throws IOException {
+        int block = 2048;
+        byte[] base = new byte[4 * block];
+        new Random(3).nextBytes(base);
+        // New version: block 2, some new bytes, then blocks 0 and 1
+        byte[] literal = "inserted".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(base, 2 * block, block);
+        expected.write(literal);
+        expected.write(base, 0, 2 * block);
+        byte[] result = expected.toByteArray();
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        delta.write("COPY?2?1\nDATA?8\n".getBytes(StandardCharsets.UTF_8));
+        delta.write(literal);
+        delta.write(("COPY?0?2\nEND?" + sha256(result) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel baseChannel = write("base", base);
+             FileChannel target = FileChannel.open(dir.resolve("target"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            String failure = DeltaSync.rebuild(new ByteArrayInputStream(delta.toByteArray()), baseChannel, block,
+                    result.length, target, StreamChecksum.create(StreamChecksum.SHA256));
+            assertNull(failure);
+        }
+        assertArrayEquals(result, Files.readAllBytes(dir.resolve("target")));
+    }
+
+    @Test
+    void rejectsReferencesPastTheBaseAndBadChecksums() throws IOException {
+        byte[] base = new byte[2048];
+        try (FileChannel baseChannel = write("base", base);
+             FileChannel target = FileChannel.open(dir.resolve("target"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            String outside = DeltaSync.rebuild(stream("COPY?5?1\nEND?00\n"), baseChannel, 2048, 2048, target,
+                    StreamChecksum.create(StreamChecksum.SHA256));
+            assertNotNull(outside);
+            String mismatch = DeltaSync.rebuild(stream("COPY?0?1\nEND?00\n"), baseChannel, 2048, 2048, target,
+                    StreamChecksum.create(StreamChecksum.SHA256));
+            assertNotNull(mismatch);
+        }
+    }
+
+    private FileChannel write(String name, byte[] data) throws IOException {
+        Path path = dir.resolve(name);
+        Files.write(path, data);
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] data) {
+        StreamChecksum checksum = StreamChecksum.create(StreamChecksum.SHA256);
+        checksum.update(data, 0, data.length);
+        return checksum.value();
+    }
+}
@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+    private static HashRing<String> ring(List<String> ids) {
+        Map<String, String> members = new LinkedHashMap<>();
+        ids.forEach(id -> members.put(id, id));
+        return new HashRing<>(members);
+    }
+
+    @Test
+    void ownerDoesNotDependOnMemberOrder() {
+        HashRing<String> a = ring(List.of("localhost:1", "localhost:2", "localhost:3"));
+        HashRing<String> b = ring(List.of("localhost:3", "localhost:1", "localhost:2"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(a.owner("file" + i), b.owner("file" + i));
+        }
+    }
+
+    @Test
+    void namesSpreadRoughlyEvenly() {
+        HashRing<String> ring = ring(List.of("a", "b", "c", "d"));
+        Map<String, Integer> counts = new HashMap<>();
+        int names = 40_000;
+        for (int i = 0; i < names; i++) {
+            counts.merge(ring.owner("file-" + i + ".bin"), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(Math.abs(count - names / 4) < names / 4 * 0.25, "uneven share: " + counts);
+        }
+    }
+
+    @Test
+    void addingAMemberOnlyMovesNamesToIt() {
+        HashRing<String> before = ring(List.of("a", "b", "c"));
+        HashRing<String> after = ring(List.of("a", "b", "c", "d"));
+        int names = 20_000;
+        int moved = 0;
+        for (int i = 0; i < names; i++) {
+            String name = "name" + i;
+            if (!before.owner(name).equals(after.owner(name))) {
+                assertEquals("d", after.owner(name));
+                moved++;
+            }
+        }
+        // About a quarter should move to the new member, and no more
+        assertTrue(moved > names / 8 && moved < names * 3 / 8, "moved " + moved);
+    }
+
+    @Test
+    void singleMemberOwnsEverything() {
+        HashRing<String> ring = ring(List.of("only"));
+        assertEquals("only", ring.owner(""));
+        assertEquals("only", ring.owner("anything"));
+        assertEquals(1, ring.size());
+    }
+}
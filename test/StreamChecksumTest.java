@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class StreamChecksumTest {
+    private static StreamChecksum of(String algorithm, String text) {
+        StreamChecksum checksum = StreamChecksum.create(algorithm);
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        checksum.update(data, 0, data.length);
+        return checksum;
+    }
+
+    @Test
+    void knownValues() {
+        assertEquals("e3069283", of(StreamChecksum.CRC32C, "123456789").value());
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                of(StreamChecksum.SHA256, "abc").value());
+    }
+
+    @Test
+    void byteBuffersAndArraysAgree() {
+        StreamChecksum fromBuffer = StreamChecksum.create(StreamChecksum.CRC32C);
+        ByteBuffer direct = ByteBuffer.allocateDirect(9).put("123456789".getBytes(StandardCharsets.US_ASCII)).flip();
+        fromBuffer.update(direct);
+        assertEquals("e3069283", fromBuffer.value());
+    }
+
+    @Test
+    void trailerRoundTrip() {
+        StreamChecksum sent = of(StreamChecksum.SHA256, "body");
+        assertNull(of(StreamChecksum.SHA256, "body").verify(sent.trailer()));
+        assertNull(of(StreamChecksum.SHA256, "body").verify(sent.trailer().trim()));
+        assertNotNull(of(StreamChecksum.SHA256, "bodY").verify(sent.trailer()));
+        assertNotNull(of(StreamChecksum.SHA256, "body").verify(null));
+    }
+
+    @Test
+    void prefixTokensMatchOnlyTheSameBytes() throws IOException {
+        ByteBuffer file = ByteBuffer.wrap("0123456789".getBytes(StandardCharsets.US_ASCII));
+        Transfers.PositionalReader source = (dst, position) -> {
+            if (position >= file.limit()) {
+                return -1;
+            }
+            ByteBuffer slice = file.slice((int) position, Math.min(dst.remaining(), file.limit() - (int) position));
+            int n = slice.remaining();
+            dst.put(slice);
+            return n;
+        };
+        String token = StreamChecksum.ofPrefix(StreamChecksum.CRC32C, source, 4);
+        assertEquals("crc32c:" + of(StreamChecksum.CRC32C, "0123").value(), token);
+        assertTrue(StreamChecksum.matchesPrefix(token, source, 4));
+        assertFalse(StreamChecksum.matchesPrefix(token, source, 5));
+        assertFalse(StreamChecksum.matchesPrefix("crc32c:00000000", source, 4));
+        assertNull(StreamChecksum.ofPrefix(StreamChecksum.CRC32C, source, 11));
+    }
+
+    @Test
+    void unknownNamesGiveNull() {
+        assertNull(StreamChecksum.create("md5"));
+        assertNull(StreamChecksum.create(null));
+    }
+}